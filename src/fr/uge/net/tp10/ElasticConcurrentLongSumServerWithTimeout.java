@@ -0,0 +1,476 @@
+package fr.uge.net.tp10;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LongSum server with a timeout, as FixedPrestartedConcurrentLongSumServerWithTimeout, but
+ * served by a pool of workers that grows and shrinks with the load.
+ * <p>
+ * An acceptor thread accepts the clients and hands them to the workers through a bounded
+ * queue. When it is full the acceptor stops accepting, and the clients wait in the backlog.
+ * The pool grows by one worker each time the oldest client of the queue has waited for
+ * MAX_WAIT, up to maxWorkers. A worker without a client for KEEP_ALIVE leaves the pool, down
+ * to minWorkers.
+ * <p>
+ * The manager thread closes the inactive clients and grows the pool. It sleeps until the
+ * earliest deadline of the clients or of the oldest waiting client.
+ */
+public class ElasticConcurrentLongSumServerWithTimeout {
+
+    private static final Logger logger = Logger.getLogger(ElasticConcurrentLongSumServerWithTimeout.class.getName());
+    private static final int QUEUE_CAPACITY = 64;
+    private static final long MAX_WAIT = 50; // in milliseconds
+    private static final long KEEP_ALIVE = 10_000; // in milliseconds
+    private static final int DEFAULT_MIN_WORKERS = 2;
+    private static final int DEFAULT_MAX_WORKERS = 16;
+    private static final int MAX_OPERANDS = 1 << 20; // 8 MiB of operands, above the size overflows
+    private final ServerSocketChannel serverSocketChannel;
+    private final int timeout = 2000;
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger poolSize = new AtomicInteger();
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+    private final AtomicInteger workerIds = new AtomicInteger();
+    private final Thread acceptor;
+    private final Thread manager;
+    private volatile int minWorkers;
+    private volatile int maxWorkers;
+    private volatile boolean shutdown;
+
+    /**
+     * A client accepted and not yet taken by a worker
+     */
+    private record Pending(SocketChannel client, long acceptedAt) {
+    }
+
+    public ElasticConcurrentLongSumServerWithTimeout(int port, int minWorkers, int maxWorkers) throws IOException {
+        checkPoolSize(minWorkers, maxWorkers);
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port));
+        logger.info(this.getClass().getName() + " starts on port " + port);
+        acceptor = new Thread(this::acceptorInstructions);
+        acceptor.setName("Acceptor");
+        manager = new Thread(this::threadControl);
+        manager.setName("Manager");
+    }
+
+    private static void checkPoolSize(int minWorkers, int maxWorkers) {
+        if (minWorkers < 1 || maxWorkers < minWorkers) {
+            throw new IllegalArgumentException("The pool needs 1 <= min <= max");
+        }
+    }
+
+    static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sc.read(buffer) == -1) {
+                logger.info("Input stream closed");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long actualClientConnected() {
+        return workers.stream().filter(worker -> worker.threadData.isAlreadyUsed()).count();
+    }
+
+    private void processInfo() {
+        logger.info("There are currently " + actualClientConnected() + " clients connected to the server");
+        processPool();
+    }
+
+    private void processPool() {
+        logger.info("Pool: " + poolSize.get() + " workers (" + busyWorkers.get() + " busy) between "
+                + minWorkers + " and " + maxWorkers + ", " + queue.size() + " clients waiting");
+    }
+
+    /**
+     * Change the bounds of the pool. Workers are started at once up to the new minimum, the
+     * workers above the new maximum leave when their client does.
+     */
+    private void processResize(int minWorkers, int maxWorkers) {
+        checkPoolSize(minWorkers, maxWorkers);
+        this.maxWorkers = maxWorkers;
+        this.minWorkers = minWorkers;
+        while (tryStartWorker(minWorkers)) {
+            // start the missing workers
+        }
+        processPool();
+    }
+
+    private void processShutdown() {
+        logger.info("shutdown...");
+        shutdown = true;
+        try {
+            serverSocketChannel.close();
+        } catch (IOException e) {
+            logger.severe("IOESHUTDOWN" + e.getCause());
+        }
+    }
+
+    private void processShutdownNow() {
+        logger.info("shutdown now...");
+        shutdown = true;
+        acceptor.interrupt();
+        workers.forEach(worker -> worker.thread.interrupt());
+        manager.interrupt();
+        silentlyClose(serverSocketChannel);
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            silentlyClose(pending.client);
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ElasticConcurrentLongSumServerWithTimeout port [minWorkers maxWorkers]");
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException {
+        if (args.length != 1 && args.length != 3) {
+            usage();
+            return;
+        }
+        var minWorkers = args.length == 3 ? Integer.parseInt(args[1]) : DEFAULT_MIN_WORKERS;
+        var maxWorkers = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_MAX_WORKERS;
+        var server = new ElasticConcurrentLongSumServerWithTimeout(Integer.parseInt(args[0]), minWorkers, maxWorkers);
+        boolean flagShutDown = false;
+        server.launch();
+        try (var scanner = new Scanner(System.in)) {
+            while (!flagShutDown && scanner.hasNextLine()) {
+                var words = scanner.nextLine().trim().split(" +");
+                switch (words[0]) {
+                    case "INFO" -> server.processInfo();
+                    case "POOL" -> server.processPool();
+                    case "RESIZE" -> {
+                        try {
+                            server.processResize(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+                        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+                            logger.info("Usage : RESIZE min max, with 1 <= min <= max");
+                        }
+                    }
+                    case "SHUTDOWN" -> {server.processShutdown(); flagShutDown = true;}
+                    case "SHUTDOWNNOW" -> {server.processShutdownNow(); flagShutDown = true;}
+                    default -> logger.info("Command unknown. Available command : INFO, POOL, RESIZE min max, SHUTDOWN, SHUTDOWNNOW");
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a worker if the pool has less than limit workers
+     *
+     * @return true if a worker was started
+     */
+    private boolean tryStartWorker(int limit) {
+        for (; ; ) {
+            var size = poolSize.get();
+            if (size >= limit || shutdown) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size + 1)) {
+                var worker = new Worker();
+                workers.add(worker);
+                worker.thread.start();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove the calling worker from the pool if the pool has more than keep workers
+     *
+     * @return true if the worker must stop
+     */
+    private boolean tryRetire(int keep) {
+        for (; ; ) {
+            var size = poolSize.get();
+            if (size <= keep) {
+                return false;
+            }
+            if (poolSize.compareAndSet(size, size - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void acceptorInstructions() {
+        while (!Thread.interrupted()) {
+            SocketChannel client;
+            try {
+                client = serverSocketChannel.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException ioe) {
+                logger.log(Level.SEVERE, "Acceptor stopped by IOException", ioe.getCause());
+                return;
+            }
+            try {
+                queue.put(new Pending(client, System.nanoTime()));
+            } catch (InterruptedException e) {
+                silentlyClose(client);
+                return;
+            }
+            LockSupport.unpark(manager); // the client may wait longer than the next deadline
+        }
+    }
+
+    /**
+     * The manager sleeps until the earliest deadline of the clients served or of the oldest
+     * waiting client. It closes the clients whose deadline is elapsed and starts a worker if
+     * the oldest waiting client has waited for MAX_WAIT.
+     * <p>
+     * A worker without client has no deadline, so the manager sleeps for at most timeout:
+     * a client taken meanwhile has a deadline after the next wake up.
+     */
+    private void threadControl() {
+        var timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        var maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_WAIT);
+        while (!Thread.interrupted() && !(shutdown && poolSize.get() == 0)) {
+            var now = System.nanoTime();
+            var nextDeadline = now + timeoutNanos;
+            for (var worker : workers) {
+                var deadline = worker.threadData.closeIfInactive(now, timeoutNanos);
+                if (deadline - nextDeadline < 0) {
+                    nextDeadline = deadline;
+                }
+            }
+            var oldest = queue.peek();
+            if (oldest != null) {
+                var growAt = oldest.acceptedAt + maxWaitNanos;
+                if (growAt - now <= 0) {
+                    if (tryStartWorker(maxWorkers)) {
+                        logger.info("A client waited " + TimeUnit.NANOSECONDS.toMillis(now - oldest.acceptedAt)
+                                + " ms, pool grown to " + poolSize.get() + " workers");
+                    }
+                    growAt = now + maxWaitNanos; // the new worker gets a chance before the next one
+                }
+                if (growAt - nextDeadline < 0) {
+                    nextDeadline = growAt;
+                }
+            }
+            LockSupport.parkNanos(nextDeadline - now);
+        }
+    }
+
+    /**
+     * Iterative server main loop
+     */
+    public void launch() {
+        logger.info("Server started");
+        manager.start();
+        while (tryStartWorker(minWorkers)) {
+            // prestart the minimum
+        }
+        acceptor.start();
+    }
+
+    private final class Worker {
+        private final Thread thread = new Thread(this::run);
+        private final ThreadData threadData = new ThreadData();
+
+        private Worker() {
+            thread.setName("Worker " + workerIds.getAndIncrement());
+        }
+
+        /**
+         * Serve the clients of the queue until the worker retires or is interrupted. Whatever
+         * the way the worker stops, even an unexpected exception, it leaves the pool.
+         */
+        private void run() {
+            var retired = false; // tryRetire already removed the worker from poolSize
+            try {
+                for (; ; ) {
+                    Pending pending;
+                    try {
+                        pending = queue.poll(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (pending == null) {
+                        if (tryRetire(shutdown ? 0 : minWorkers)) {
+                            retired = true;
+                            logger.info(thread.getName() + " idle, pool shrunk to " + poolSize.get() + " workers");
+                            return;
+                        }
+                        continue;
+                    }
+                    busyWorkers.incrementAndGet();
+                    try {
+                        if (!serveClient(pending.client)) {
+                            return;
+                        }
+                    } finally {
+                        busyWorkers.decrementAndGet();
+                    }
+                    if (tryRetire(maxWorkers)) {
+                        retired = true;
+                        return;
+                    }
+                }
+            } finally {
+                if (!retired) {
+                    poolSize.decrementAndGet();
+                }
+                workers.remove(this);
+            }
+        }
+
+        /**
+         * @return false if the worker was interrupted
+         */
+        private boolean serveClient(SocketChannel client) {
+            try {
+                threadData.setSocketChannel(client);
+                logger.info("Connection accepted from " + client.getRemoteAddress());
+                serve(client, threadData);
+            } catch (ClosedByInterruptException e) {
+                return false;
+            } catch (IOException ioe) {
+                // Do nothing
+            } finally {
+                threadData.close();
+                silentlyClose(client);
+            }
+            return !Thread.currentThread().isInterrupted();
+        }
+    }
+
+    /**
+     * Treat the connection sc applying the protocol. All IOException are thrown
+     *
+     * @param sc
+     * @throws IOException
+     */
+    private void serve(SocketChannel sc, ThreadData threadData) throws IOException {
+        ByteBuffer nbOperandBuffer = ByteBuffer.allocate(Integer.BYTES);
+        for (; ; ) {
+            long res = 0;
+            nbOperandBuffer.clear();
+            if (!readFully(sc, nbOperandBuffer)) {
+                return;
+            }
+            threadData.tick();
+            nbOperandBuffer.flip();
+            int nbOperand = nbOperandBuffer.getInt();
+            if (nbOperand < 0 || nbOperand > MAX_OPERANDS) {
+                logger.info("Invalid number of operands: " + nbOperand);
+                return;
+            }
+            ByteBuffer operands = ByteBuffer.allocate(Long.BYTES * nbOperand);
+            boolean readStatus = readFully(sc, operands);
+            threadData.tick();
+            operands.flip();
+            for (int i = 0; i < nbOperand; i++) {
+                res += operands.getLong();
+            }
+            ByteBuffer response = ByteBuffer.allocate(Long.BYTES);
+            response.putLong(res);
+            response.flip();
+            sc.write(response);
+            threadData.tick();
+            if (!readStatus) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Close a SocketChannel while ignoring IOException
+     *
+     * @param sc
+     */
+    private static void silentlyClose(Closeable sc) {
+        if (sc != null) {
+            try {
+                sc.close();
+            } catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+
+    /**
+     * The client of a worker and the time of its last activity, as in
+     * FixedPrestartedConcurrentLongSumServerWithTimeout.
+     */
+    private static class ThreadData {
+        private static final Logger logger = Logger.getLogger(ThreadData.class.getName());
+        private final AtomicReference<SocketChannel> sc = new AtomicReference<>();
+        private volatile long lastActivity;
+
+        private ThreadData() {
+        }
+
+        /**
+         * Changes the current client managed by this thread.
+         */
+        public void setSocketChannel(SocketChannel client) {
+            Objects.requireNonNull(client);
+            tick();
+            sc.set(client); // after tick, the manager never sees the new client with the old activity
+        }
+
+        /**
+         * Indicates that the client is active at the time of the call to this method.
+         */
+        public void tick() {
+            lastActivity = System.nanoTime();
+        }
+
+        /**
+         * Disconnects the client if it has been inactive for timeoutNanos.
+         *
+         * @return the deadline of the client, or now + timeoutNanos if there is no client
+         */
+        public long closeIfInactive(long now, long timeoutNanos) {
+            var client = sc.get();
+            if (client == null) {
+                return now + timeoutNanos;
+            }
+            var deadline = lastActivity + timeoutNanos;
+            if (deadline - now > 0) {
+                return deadline;
+            }
+            if (sc.compareAndSet(client, null)) {
+                silentlyClose(client);
+                logger.info("Connexion closed because timeout is elapsed");
+            }
+            return now + timeoutNanos;
+        }
+
+        /**
+         * Disconnects the client
+         */
+        public void close() {
+            var client = sc.getAndSet(null);
+            if (client != null) {
+                silentlyClose(client);
+            }
+        }
+
+        public boolean isAlreadyUsed() {
+            return sc.get() != null;
+        }
+    }
+}
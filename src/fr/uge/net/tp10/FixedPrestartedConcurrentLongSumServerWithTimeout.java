@@ -9,6 +9,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
@@ -125,15 +128,27 @@ public class FixedPrestartedConcurrentLongSumServerWithTimeout {
         };
     }
 
+    /**
+     * The manager sleeps until the earliest deadline of the connected clients and closes the
+     * clients whose deadline is elapsed. A client that was active since is not closed, its
+     * deadline moved and the manager sleeps again until the new earliest one.
+     * <p>
+     * When no client is connected, the manager sleeps for timeout: a client connected meanwhile
+     * has a deadline at least timeout after the last wake up, so it is never closed late.
+     */
     private Runnable threadControl() {
         return () -> {
-            for (; ; ) {
-                try {
-                    Thread.sleep(timeout);
-                    Arrays.stream(threadsData).forEach(td -> td.incrementAndKillIfInactive(1));
-                } catch (InterruptedException e) {
-                    return;
+            var timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (!Thread.interrupted()) {
+                var now = System.nanoTime();
+                var nextDeadline = now + timeoutNanos;
+                for (var threadData : threadsData) {
+                    var deadline = threadData.closeIfInactive(now, timeoutNanos);
+                    if (deadline - nextDeadline < 0) {
+                        nextDeadline = deadline;
+                    }
                 }
+                LockSupport.parkNanos(nextDeadline - now);
             }
         };
     }
@@ -199,12 +214,17 @@ public class FixedPrestartedConcurrentLongSumServerWithTimeout {
         }
     }
 
+    /**
+     * The client of a worker and the time of its last activity. The worker publishes its
+     * activity with a volatile write, so the hot path of serve takes no lock. The manager
+     * closes the client with a compareAndSet on sc, so it cannot close the next client of the
+     * worker by mistake.
+     */
     private static class ThreadData {
         private static final Logger logger = Logger.getLogger(ThreadData.class.getName());
-        private final Object lock = new Object();
-        private SocketChannel sc;
-        private int nbTick = 0;
-        private boolean isAlreadyUsed = false;
+        private final AtomicReference<SocketChannel> sc = new AtomicReference<>();
+        private volatile long lastActivity;
+
         private ThreadData() {
         }
 
@@ -213,54 +233,59 @@ public class FixedPrestartedConcurrentLongSumServerWithTimeout {
          */
         public void setSocketChannel(SocketChannel client) {
             Objects.requireNonNull(client);
-            synchronized (lock) {
-                isAlreadyUsed = true;
-                sc = client;
-                tick();
-            }
+            tick();
+            sc.set(client); // after tick, the manager never sees the new client with the old activity
         }
 
         /**
          * Indicates that the client is active at the time of the call to this method.
          */
         public void tick() {
-            synchronized (lock) {
-                nbTick = 0;
-            }
+            lastActivity = System.nanoTime();
         }
 
         /**
-         * Disconnects the client if it has been inactive for more than timeout milliseconds.
+         * Disconnects the client if it has been inactive for timeoutNanos.
+         *
+         * @return the deadline of the client, or a time after now + timeoutNanos if there is no
+         * client
          */
-        public void incrementAndKillIfInactive(int timeoutTick) {
-            synchronized (lock) {
-                nbTick++;
-                if(timeoutTick < nbTick && isAlreadyUsed){
-                    close();
-                    logger.info("Connexion closed because timeout is elapsed");
-                    isAlreadyUsed = false;
-                }
+        public long closeIfInactive(long now, long timeoutNanos) {
+            var client = sc.get();
+            if (client == null) {
+                return now + timeoutNanos;
+            }
+            var deadline = lastActivity + timeoutNanos;
+            if (deadline - now > 0) {
+                return deadline;
+            }
+            if (sc.compareAndSet(client, null)) {
+                silentlyClose(client);
+                logger.info("Connexion closed because timeout is elapsed");
             }
+            return now + timeoutNanos;
         }
 
         /**
          * Disconnects the client
          */
         public void close() {
-            synchronized (lock) {
-                try {
-                    sc.close();
-                    isAlreadyUsed = false;
-                } catch (IOException e) {
-                    logger.warning("Connexion  closed " + e.getCause());
-                }
+            var client = sc.getAndSet(null);
+            if (client != null) {
+                silentlyClose(client);
             }
         }
 
-        public boolean isAlreadyUsed(){
-            synchronized (lock){
-                return isAlreadyUsed;
+        public boolean isAlreadyUsed() {
+            return sc.get() != null;
+        }
+
+        private static void silentlyClose(SocketChannel client) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warning("Connexion  closed " + e.getCause());
             }
         }
     }
-}
\ No newline at end of file
+}
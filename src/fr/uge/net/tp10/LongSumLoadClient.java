@@ -0,0 +1,239 @@
+package fr.uge.net.tp10;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Load test of the LongSum servers: nbClients connections are opened and kept open, then in
+ * each round every client sends a request and waits for the sum. The latency of the requests
+ * of a round is reported with the number of clients still connected, so a server that holds
+ * all the clients with a flat latency shows the same line round after round.
+ * <p>
+ * All the clients are driven by one thread and one Selector, so the client side is not the
+ * bottleneck of the test. The number of open files (ulimit -n) of the client and of the server
+ * must be above nbClients, and from one host the number of local ports limits the clients to
+ * about 28000 per server address.
+ */
+public class LongSumLoadClient {
+
+    private static final Logger logger = Logger.getLogger(LongSumLoadClient.class.getName());
+    private static final int NB_OPERANDS = 16;
+    private static final int MAX_PENDING_CONNECTS = 512; // above the accept backlog, SYN are lost and retried after 1 s
+    private static final long TIMEOUT = 10_000;
+
+    private final InetSocketAddress serverAddress;
+    private final int nbClients;
+    private final int nbRounds;
+    private final long pauseMillis;
+    private final Selector selector;
+    private final ByteBuffer request = ByteBuffer.allocate(Integer.BYTES + NB_OPERANDS * Long.BYTES);
+    private final long expectedSum;
+    private int pendingConnects;
+    private int connected;
+    private int failed;
+    private int answered;
+    private long[] latencies;
+
+    private final class Context {
+        private final SocketChannel sc;
+        private final ByteBuffer bufferOut = request.duplicate();
+        private final ByteBuffer bufferIn = ByteBuffer.allocate(Long.BYTES);
+        private SelectionKey key;
+        private long sentAt;
+
+        private Context(SocketChannel sc) {
+            this.sc = sc;
+        }
+
+        private void doConnect() throws IOException {
+            if (!sc.finishConnect()) {
+                return;
+            }
+            pendingConnects--;
+            connected++;
+            key.interestOps(0);
+        }
+
+        private void send(long now) {
+            sentAt = now;
+            bufferOut.rewind();
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void doWrite() throws IOException {
+            sc.write(bufferOut);
+            if (!bufferOut.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void doRead() throws IOException {
+            if (sc.read(bufferIn) == -1) {
+                throw new IOException("Connection closed by the server");
+            }
+            if (bufferIn.hasRemaining()) {
+                return;
+            }
+            if (bufferIn.flip().getLong() != expectedSum) {
+                throw new IOException("Wrong sum");
+            }
+            bufferIn.clear();
+            latencies[answered++] = System.nanoTime() - sentAt;
+            key.interestOps(0);
+        }
+
+        private void close(boolean wasConnected) {
+            if (wasConnected) {
+                connected--;
+            } else {
+                pendingConnects--;
+            }
+            failed++;
+            key.cancel();
+            try {
+                sc.close();
+            } catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+
+    public LongSumLoadClient(InetSocketAddress serverAddress, int nbClients, int nbRounds, long pauseMillis)
+            throws IOException {
+        this.serverAddress = serverAddress;
+        this.nbClients = nbClients;
+        this.nbRounds = nbRounds;
+        this.pauseMillis = pauseMillis;
+        this.selector = Selector.open();
+        request.putInt(NB_OPERANDS);
+        var sum = 0L;
+        for (int i = 0; i < NB_OPERANDS; i++) {
+            request.putLong(i);
+            sum += i;
+        }
+        request.flip();
+        expectedSum = sum;
+    }
+
+    private void treatKey(SelectionKey key) {
+        var context = (Context) key.attachment();
+        var wasConnected = (key.interestOps() & SelectionKey.OP_CONNECT) == 0;
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                context.doConnect();
+            }
+            if (key.isValid() && key.isWritable()) {
+                context.doWrite();
+            }
+            if (key.isValid() && key.isReadable()) {
+                context.doRead();
+            }
+        } catch (IOException e) {
+            logger.fine("Client closed: " + e.getMessage());
+            context.close(wasConnected);
+        }
+    }
+
+    private void select(long timeout) {
+        try {
+            selector.select(this::treatKey, timeout);
+        } catch (UncheckedIOException tunneled) {
+            throw tunneled;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Open the connections, never more than MAX_PENDING_CONNECTS at the same time
+     */
+    private void connectAll() throws IOException {
+        var start = System.currentTimeMillis();
+        var opened = 0;
+        while (opened < nbClients || pendingConnects > 0) {
+            while (opened < nbClients && pendingConnects < MAX_PENDING_CONNECTS) {
+                var sc = SocketChannel.open();
+                sc.configureBlocking(false);
+                var context = new Context(sc);
+                context.key = sc.register(selector, SelectionKey.OP_CONNECT, context);
+                pendingConnects++;
+                opened++;
+                try {
+                    if (sc.connect(serverAddress)) {
+                        context.doConnect();
+                    }
+                } catch (IOException e) {
+                    context.close(false);
+                }
+            }
+            select(TIMEOUT);
+        }
+        System.out.printf("%d clients connected in %d ms, %d failed%n",
+                connected, System.currentTimeMillis() - start, failed);
+    }
+
+    /**
+     * Send a request from every client and wait for all the sums
+     */
+    private void round(int round) {
+        var start = System.nanoTime();
+        latencies = new long[connected];
+        answered = 0;
+        selector.keys().forEach(key -> {
+            if (key.isValid()) {
+                ((Context) key.attachment()).send(start);
+            }
+        });
+        var deadline = System.currentTimeMillis() + TIMEOUT;
+        while (answered < connected && System.currentTimeMillis() < deadline) {
+            select(TIMEOUT);
+        }
+        var elapsed = System.nanoTime() - start;
+        var sorted = Arrays.copyOf(latencies, answered);
+        Arrays.sort(sorted);
+        System.out.printf("round %3d: %6d clients, %6d answers in %5d ms, latency p50 %s p99 %s max %s%n",
+                round, connected, answered, elapsed / 1_000_000,
+                millis(sorted, 0.5), millis(sorted, 0.99), millis(sorted, 1.0));
+    }
+
+    private static String millis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return "-";
+        }
+        var index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+        return String.format("%.2f ms", sorted[Math.max(0, index)] / 1e6);
+    }
+
+    public void launch() throws IOException, InterruptedException {
+        connectAll();
+        for (int i = 0; i < nbRounds && connected > 0; i++) {
+            round(i);
+            Thread.sleep(pauseMillis);
+        }
+        for (var key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private static void usage() {
+        System.out.println("Usage : LongSumLoadClient hostname port nbClients nbRounds [pauseMillis]");
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 4 && args.length != 5) {
+            usage();
+            return;
+        }
+        var pauseMillis = args.length == 5 ? Long.parseLong(args[4]) : 1_000;
+        new LongSumLoadClient(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), pauseMillis).launch();
+    }
+}
@@ -0,0 +1,190 @@
+package fr.uge.net.tp10;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LongSum server serving each connection on its own thread with the blocking code of
+ * OnDemandConcurrentLongSumServer, but on a virtual thread when the JVM has them (Java 21
+ * and later), so that the number of clients is not bounded by the number of platform threads.
+ * <p>
+ * On an older JVM the connections are served by a cached pool of platform threads with a small
+ * stack: the threads of the clients that left are reused, which saves the thread creation on
+ * each connect, but each connected client still holds a platform thread.
+ * <p>
+ * The number of clients served at the same time is bounded by maxClients: when it is reached,
+ * the server stops accepting until a client leaves, as BoundedOnDemandConcurrentLongSumServer.
+ */
+public class VirtualThreadLongSumServer {
+
+    private static final Logger logger = Logger.getLogger(VirtualThreadLongSumServer.class.getName());
+    private static final int DEFAULT_MAX_CLIENTS = 100_000;
+    private static final int BACKLOG = 4_096; // the default of 50 drops the SYN of a crowd of clients
+    private static final long PLATFORM_STACK_SIZE = 256 * 1_024;
+    private static final int MAX_OPERANDS = 1 << 20; // 8 MiB of operands, above the size overflows
+    private final ServerSocketChannel serverSocketChannel;
+    private final Semaphore semaphore;
+    private final ExecutorService executor = newThreadPerConnectionExecutor();
+
+    public VirtualThreadLongSumServer(int port, int maxClients) throws IOException {
+        if (maxClients <= 0) {
+            throw new IllegalArgumentException("maxClients must be positive");
+        }
+        semaphore = new Semaphore(maxClients);
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress(port), BACKLOG);
+        logger.info(this.getClass().getName() + " starts on port " + port + " for " + maxClients + " clients");
+    }
+
+    /**
+     * Return an executor starting a virtual thread per task, or a cached pool of platform
+     * threads if the JVM has no virtual threads. The method is looked up by reflection because
+     * the code is compiled for Java 17.
+     */
+    private static ExecutorService newThreadPerConnectionExecutor() {
+        try {
+            var executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            logger.info("Connections served by virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            logger.info("No virtual threads in this JVM, connections served by platform threads");
+            return Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(null, runnable, "LongSum client", PLATFORM_STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Server main loop, a permit is taken before each accept and given back when the client leaves
+     *
+     * @throws IOException
+     */
+    public void launch() throws IOException, InterruptedException {
+        logger.info("Server started");
+        try {
+            while (!Thread.interrupted()) {
+                semaphore.acquire();
+                SocketChannel client;
+                try {
+                    client = serverSocketChannel.accept();
+                } catch (IOException e) {
+                    semaphore.release();
+                    throw e;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            // FINE and not INFO, a line per connection is too much for a crowd of clients
+                            logger.fine("Connection accepted from " + client.getRemoteAddress());
+                            serve(client);
+                        } catch (IOException ioe) {
+                            logger.log(Level.FINE, "Connection terminated with client by IOException", ioe);
+                        } finally {
+                            semaphore.release();
+                            silentlyClose(client);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    semaphore.release();
+                    silentlyClose(client);
+                    return;
+                }
+            }
+        } catch (AsynchronousCloseException e) {
+            logger.info("Server stopped");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Treat the connection sc applying the protocol. All IOException are thrown
+     *
+     * @param sc
+     * @throws IOException
+     */
+    private void serve(SocketChannel sc) throws IOException {
+        ByteBuffer nbOperandBuffer = ByteBuffer.allocate(Integer.BYTES);
+        ByteBuffer response = ByteBuffer.allocate(Long.BYTES);
+        for (; ; ) {
+            long res = 0;
+            nbOperandBuffer.clear();
+            if (!readFully(sc, nbOperandBuffer)) {
+                return;
+            }
+            nbOperandBuffer.flip();
+            int nbOperand = nbOperandBuffer.getInt();
+            if (nbOperand < 0 || nbOperand > MAX_OPERANDS) {
+                logger.fine("Invalid number of operands: " + nbOperand);
+                return;
+            }
+            ByteBuffer operands = ByteBuffer.allocate(Long.BYTES * nbOperand);
+            boolean readStatus = readFully(sc, operands);
+            operands.flip();
+            for (int i = 0; i < nbOperand; i++) {
+                res += operands.getLong();
+            }
+            response.clear();
+            response.putLong(res);
+            response.flip();
+            while (response.hasRemaining()) {
+                sc.write(response);
+            }
+            if (!readStatus) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Close a SocketChannel while ignoring IOException
+     *
+     * @param sc
+     */
+    private void silentlyClose(Closeable sc) {
+        if (sc != null) {
+            try {
+                sc.close();
+            } catch (IOException e) {
+                // Do nothing
+            }
+        }
+    }
+
+    static boolean readFully(SocketChannel sc, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (sc.read(buffer) == -1) {
+                logger.fine("Input stream closed");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void usage() {
+        System.out.println("Usage : VirtualThreadLongSumServer port [maxClients]");
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 1 && args.length != 2) {
+            usage();
+            return;
+        }
+        var maxClients = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_MAX_CLIENTS;
+        var server = new VirtualThreadLongSumServer(Integer.parseInt(args[0]), maxClients);
+        server.launch();
+    }
+}
@@ -12,12 +12,16 @@ public class ServerEcho {
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final BufferPool bufferPool;
+        private final ByteBuffer buffer;
         private boolean closed = false;
+        private boolean released = false;
 
-        private Context(SelectionKey key) {
+        private Context(SelectionKey key, BufferPool bufferPool) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.bufferPool = bufferPool;
+            this.buffer = bufferPool.acquire(this);
         }
 
         /**
@@ -91,14 +95,20 @@ public class ServerEcho {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (!released) {
+                released = true;
+                bufferPool.release(buffer);
+            }
         }
     }
 
     private static final int BUFFER_SIZE = 1_024;
+    private static final int BUFFERS_PER_SLAB = 1_024;
     private static final Logger logger = Logger.getLogger(ServerEcho.class.getName());
 
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
 
     public ServerEcho(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
@@ -140,7 +150,7 @@ public class ServerEcho {
             }
         } catch (IOException e) {
             logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            ((Context) key.attachment()).silentlyClose();
         }
     }
 
@@ -152,16 +162,7 @@ public class ServerEcho {
         }
         sc.configureBlocking(false);
         var selectionKey = sc.register(selector, SelectionKey.OP_READ);
-        selectionKey.attach(new Context(selectionKey));
-    }
-
-    private void silentlyClose(SelectionKey key) {
-        var sc = (Channel) key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
-        }
+        selectionKey.attach(new Context(selectionKey, bufferPool));
     }
 
     public static void main(String[] args) throws NumberFormatException, IOException {
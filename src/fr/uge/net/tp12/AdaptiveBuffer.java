@@ -0,0 +1,100 @@
+package fr.uge.net.tp12;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Buffer of a connection that is only held while the connection is active.
+ * <p>
+ * No buffer is held until the first read. Then a small buffer is borrowed from a pool. After
+ * GROW_AFTER reads in a row that fill it, its content moves to a large buffer. The buffer goes
+ * back to its pool once it is empty and the connection is idle. So the memory follows the
+ * number of active connections, not the number of open ones. Not thread safe, owned by the
+ * selector thread.
+ */
+public class AdaptiveBuffer {
+    private static final int GROW_AFTER = 2; // reads in a row filling the small buffer
+    private final Object owner;
+    private final BufferPool smallPool;
+    private final BufferPool largePool;
+    private ByteBuffer buffer; // write-mode, null if no buffer is held
+    private boolean large;
+    private int fullReads; // reads in a row that filled the buffer
+
+    /**
+     * @param owner     - object holding the buffer, see BufferPool.acquire
+     * @param smallPool - pool of the buffers of the connections that send a little
+     * @param largePool - pool of the buffers of the connections that send a lot
+     */
+    public AdaptiveBuffer(Object owner, BufferPool smallPool, BufferPool largePool) {
+        this.owner = Objects.requireNonNull(owner);
+        this.smallPool = Objects.requireNonNull(smallPool);
+        this.largePool = Objects.requireNonNull(largePool);
+    }
+
+    /**
+     * Return the buffer, borrowing a small one if none is held
+     *
+     * @return the buffer, in write-mode
+     */
+    public ByteBuffer get() {
+        if (buffer == null) {
+            buffer = smallPool.acquire(owner);
+            large = false;
+            fullReads = 0;
+        }
+        return buffer;
+    }
+
+    /**
+     * Return the buffer, or null if none is held
+     */
+    public ByteBuffer peek() {
+        return buffer;
+    }
+
+    /**
+     * Tell how much the last read got, the buffer is replaced by a large one if the small one
+     * keeps being filled. The content of the buffer is kept.
+     *
+     * @param read - bytes read
+     * @param room - bytes remaining in the buffer before the read
+     */
+    public void afterRead(int read, int room) {
+        if (read < room || room == 0) {
+            fullReads = 0;
+            return;
+        }
+        if (++fullReads < GROW_AFTER || large) {
+            return;
+        }
+        var largeBuffer = largePool.acquire(owner);
+        largeBuffer.put(buffer.flip());
+        smallPool.release(buffer);
+        buffer = largeBuffer;
+        large = true;
+    }
+
+    /**
+     * Give the buffer back to its pool if it is empty
+     *
+     * @return true if no buffer is held after the call
+     */
+    public boolean releaseIfEmpty() {
+        if (buffer != null && buffer.position() == 0) {
+            release();
+        }
+        return buffer == null;
+    }
+
+    /**
+     * Give the buffer back to its pool, whatever its content
+     */
+    public void release() {
+        if (buffer == null) {
+            return;
+        }
+        (large ? largePool : smallPool).release(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,76 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquireAndRelease() {
+        var pool = new BufferPool(16, 4);
+        var owner = new Object();
+        var buffer = pool.acquire(owner);
+        assertTrue(buffer.isDirect());
+        assertEquals(16, buffer.capacity());
+        assertEquals(16, buffer.remaining());
+        assertEquals(1, pool.borrowed());
+        buffer.putInt(42);
+        pool.release(buffer);
+        assertEquals(0, pool.borrowed());
+        var again = pool.acquire(owner);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+    }
+
+    @Test
+    public void acquireClearsABufferUsedAfterItsRelease() {
+        var pool = new BufferPool(16, 4);
+        var owner = new Object();
+        var buffer = pool.acquire(owner);
+        pool.release(buffer);
+        buffer.putInt(42); // faulty owner
+        var again = pool.acquire(owner);
+        assertSame(buffer, again);
+        assertEquals(0, again.position());
+        assertEquals(16, again.limit());
+    }
+
+    @Test
+    public void growsBySlab() {
+        var pool = new BufferPool(16, 2);
+        var owner = new Object();
+        var first = pool.acquire(owner);
+        var second = pool.acquire(owner);
+        var third = pool.acquire(owner);
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+        assertEquals(3, pool.borrowed());
+        first.put(0, (byte) 1);
+        assertEquals(0, second.get(0));
+    }
+
+    @Test
+    public void doubleRelease() {
+        var pool = new BufferPool(16, 2);
+        var buffer = pool.acquire(new Object());
+        pool.release(buffer);
+        assertThrows(IllegalStateException.class, () -> pool.release(buffer));
+    }
+
+    @Test
+    public void leakIsReclaimed() throws InterruptedException {
+        var pool = new BufferPool(16, 2);
+        pool.acquire(new Object());
+        for (int i = 0; i < 100 && pool.leaks() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.leaks());
+        assertEquals(0, pool.borrowed());
+    }
+}
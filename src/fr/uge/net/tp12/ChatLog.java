@@ -0,0 +1,327 @@
+package fr.uge.net.tp12;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of the chat frames, stored in segment files. One thread at a time appends,
+ * any thread can read the history concurrently.
+ * <p>
+ * A record is the size of the frame, the size of the name of the room, the name of the room
+ * in UTF-8 and the frame. The segments are created with their final size, so a record whose
+ * frame size is 0 marks the end of a segment. The last MAX_HISTORY frames of at most maxRooms
+ * rooms are indexed in memory, the index of the least recently used room is evicted first.
+ * The index is rebuilt from the segments when the log is opened.
+ * <p>
+ * Only the last maxSegments segments are kept, the oldest file is deleted when a new segment
+ * is created. Appending is a copy into the mapping of the last segment, the other segments
+ * are not mapped. The lock taken by lastFrames only guards the index and the list of the
+ * segments: the copy, the creation of a segment and the deletion of a file are done without
+ * it, so a reader never waits for the file system. Replaying is done with
+ * FileChannel.transferTo, so the frames go from the page cache to the socket without going
+ * through the heap.
+ */
+public class ChatLog implements Closeable {
+    private static final Logger logger = Logger.getLogger(ChatLog.class.getName());
+    private static final int MAX_HISTORY = 1_024; // frames indexed per room
+    private static final int INITIAL_HISTORY = 8; // the index of a room grows up to MAX_HISTORY
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{20})\\.log");
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final ArrayList<Segment> segments = new ArrayList<>(); // segments.get(i) starts at segments.get(0) + i * segmentSize
+    private final LinkedHashMap<String, RoomIndex> rooms;
+    private Segment last; // only used by the appending thread
+    private MappedByteBuffer map; // of the last segment, only used by the appending thread
+    private FileChannel retiredChannel; // of the last deleted segment, closed when the next one is deleted
+
+    /**
+     * Opens the log stored in directory, or creates it
+     *
+     * @param directory   - directory of the segment files
+     * @param segmentSize - size of a segment file in bytes
+     * @param maxSegments - number of segments kept, the oldest are deleted
+     * @param maxRooms    - number of rooms whose history is indexed
+     * @throws IOException - if some I/O error occurs
+     */
+    public ChatLog(Path directory, int segmentSize, int maxSegments, int maxRooms) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segments are too small");
+        }
+        if (maxSegments < 1 || maxRooms < 1) {
+            throw new IllegalArgumentException("At least one segment and one room");
+        }
+        this.directory = Objects.requireNonNull(directory);
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.rooms = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RoomIndex> eldest) {
+                return size() > maxRooms;
+            }
+        };
+        Files.createDirectories(directory);
+        var baseOffset = firstBaseOffset();
+        for (; Files.exists(segmentPath(baseOffset)); baseOffset += segmentSize) {
+            segments.add(openSegment(baseOffset));
+            scan(last);
+        }
+        if (segments.isEmpty()) {
+            segments.add(openSegment(0));
+        }
+        while (segments.size() > maxSegments) {
+            retire(segments.remove(0));
+        }
+        logger.info("Chat log opened in " + directory + " with " + segments.size() + " segments");
+    }
+
+    private long firstBaseOffset() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.map(path -> SEGMENT_NAME.matcher(path.getFileName().toString()))
+                    .filter(matcher -> matcher.matches())
+                    .mapToLong(matcher -> Long.parseLong(matcher.group(1)))
+                    .min()
+                    .orElse(0);
+        }
+    }
+
+    private Path segmentPath(long baseOffset) {
+        return directory.resolve(String.format("%020d.log", baseOffset));
+    }
+
+    /**
+     * Create or open a segment file and map it, it becomes the last segment of the appending
+     * thread but is not added to segments
+     */
+    private Segment openSegment(long baseOffset) throws IOException {
+        var channel = FileChannel.open(segmentPath(baseOffset),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize); // the previous one is unmapped by the GC
+        last = new Segment(channel, baseOffset);
+        return last;
+    }
+
+    /**
+     * Delete a segment removed from segments. Its channel stays open until the next segment
+     * is deleted, so the replays in progress can still finish.
+     */
+    private void retire(Segment segment) throws IOException {
+        FileChannel toClose;
+        synchronized (this) {
+            toClose = retiredChannel;
+            retiredChannel = segment.channel;
+        }
+        if (toClose != null) {
+            toClose.close();
+        }
+        Files.delete(segmentPath(segment.baseOffset));
+    }
+
+    /**
+     * Start a new segment. The file is created and mapped before taking the lock, which is
+     * only held to add it to the segments.
+     */
+    private void rollOver() throws IOException {
+        var segment = openSegment(last.baseOffset + segmentSize);
+        Segment retired = null;
+        synchronized (this) {
+            segments.add(segment);
+            if (segments.size() > maxSegments) {
+                retired = segments.remove(0);
+            }
+        }
+        if (retired != null) {
+            retire(retired);
+        }
+    }
+
+    /**
+     * Index the records of the last segment and move the position of its mapping after the
+     * last valid one. A record that does not fit in the segment, as written by a crash, ends
+     * the segment and is overwritten by the next append.
+     */
+    private void scan(Segment segment) {
+        while (map.remaining() >= HEADER_SIZE) {
+            var position = map.position();
+            var frameSize = map.getInt();
+            var nameSize = map.getInt();
+            if (frameSize <= 0 || nameSize < 0 || (long) nameSize + frameSize > map.remaining()) {
+                if (frameSize != 0) {
+                    logger.warning("Truncated record at " + (segment.baseOffset + position) + ", ignored");
+                }
+                map.position(position);
+                return;
+            }
+            var room = StandardCharsets.UTF_8.decode(map.slice(map.position(), nameSize)).toString();
+            var frameOffset = segment.baseOffset + map.position() + nameSize;
+            rooms.computeIfAbsent(room, RoomIndex::new).add(frameOffset, frameSize);
+            map.position(map.position() + nameSize + frameSize);
+        }
+    }
+
+    /**
+     * Append a frame to the log. Must not be called by two threads at the same time.
+     *
+     * @param room  - room the frame was sent to
+     * @param frame - frame, in read-mode, it is left untouched
+     * @throws IOException - if some I/O error occurs
+     */
+    public void append(String room, ByteBuffer frame) throws IOException {
+        RoomIndex index;
+        synchronized (this) {
+            index = rooms.computeIfAbsent(room, RoomIndex::new); // only appending evicts a room
+        }
+        var recordSize = HEADER_SIZE + index.encodedName.length + frame.remaining();
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Frame bigger than a segment");
+        }
+        if (map.remaining() < recordSize) {
+            rollOver();
+        }
+        map.putInt(frame.remaining()).putInt(index.encodedName.length).put(index.encodedName);
+        var offset = last.baseOffset + map.position();
+        map.put(frame.duplicate());
+        synchronized (this) {
+            index.add(offset, frame.remaining()); // the frame is written, readers can see it
+        }
+    }
+
+    /**
+     * Return the last frames sent to a room, oldest first
+     *
+     * @param room  - name of the room
+     * @param count - maximum number of frames, at most MAX_HISTORY are available
+     * @return the regions of the segment files holding the frames
+     */
+    public synchronized List<Region> lastFrames(String room, int count) {
+        var index = rooms.get(room);
+        var regions = new ArrayList<Region>();
+        if (index == null) {
+            return regions;
+        }
+        var firstOffset = segments.get(0).baseOffset; // the frames before were deleted
+        var nb = Math.min(count, index.size);
+        for (int i = index.size - nb; i < index.size; i++) {
+            var slot = (index.first + i) % index.offsets.length;
+            var offset = index.offsets[slot];
+            if (offset < firstOffset) {
+                continue;
+            }
+            var segment = segment(offset);
+            var position = offset - segment.baseOffset;
+            regions.add(new Region(segment.channel, position, position + index.sizes[slot]));
+        }
+        return regions;
+    }
+
+    private Segment segment(long offset) {
+        return segments.get((int) ((offset - segments.get(0).baseOffset) / segmentSize));
+    }
+
+    /**
+     * Close the segment files, no thread must be appending
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (var segment : segments) {
+            segment.channel.close();
+        }
+        if (retiredChannel != null) {
+            retiredChannel.close();
+        }
+        map = null;
+    }
+
+    private record Segment(FileChannel channel, long baseOffset) {
+    }
+
+    /**
+     * The last MAX_HISTORY frames of a room, in a ring buffer allocated small and doubled
+     * up to MAX_HISTORY, so a room with few frames costs little
+     */
+    private static class RoomIndex {
+        private final byte[] encodedName;
+        private long[] offsets = new long[INITIAL_HISTORY];
+        private int[] sizes = new int[INITIAL_HISTORY];
+        private int first;
+        private int size;
+
+        private RoomIndex(String name) {
+            this.encodedName = name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void add(long offset, int frameSize) {
+            if (size == offsets.length && size < MAX_HISTORY) {
+                grow();
+            }
+            var slot = (first + size) % offsets.length;
+            offsets[slot] = offset;
+            sizes[slot] = frameSize;
+            if (size == offsets.length) {
+                first = (first + 1) % offsets.length;
+            } else {
+                size++;
+            }
+        }
+
+        /**
+         * Double the capacity, the ring is full so it is unrolled starting at first
+         */
+        private void grow() {
+            var capacity = Math.min(MAX_HISTORY, offsets.length * 2);
+            var newOffsets = Arrays.copyOf(offsets, capacity);
+            var newSizes = Arrays.copyOf(sizes, capacity);
+            for (int i = 0; i < size; i++) {
+                newOffsets[i] = offsets[(first + i) % offsets.length];
+                newSizes[i] = sizes[(first + i) % sizes.length];
+            }
+            offsets = newOffsets;
+            sizes = newSizes;
+            first = 0;
+        }
+    }
+
+    /**
+     * A part of a segment file still to be sent
+     */
+    public static class Region {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        private Region(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        /**
+         * Send as much of the region as possible
+         *
+         * @param target - channel to send the region to
+         * @return true if the whole region has been sent
+         * @throws IOException - if some I/O error occurs
+         */
+        public boolean transferTo(WritableByteChannel target) throws IOException {
+            position += channel.transferTo(position, end - position, target);
+            return position == end;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChatLogTest {
+
+    private static ByteBuffer frame(String text) {
+        return StandardCharsets.UTF_8.encode(text);
+    }
+
+    private static List<String> history(ChatLog chatLog, String room, int count) throws IOException {
+        var texts = new ArrayList<String>();
+        for (var region : chatLog.lastFrames(room, count)) {
+            var bytes = new ByteArrayOutputStream();
+            assertTrue(region.transferTo(Channels.newChannel(bytes)));
+            texts.add(bytes.toString(StandardCharsets.UTF_8));
+        }
+        return texts;
+    }
+
+    private static long nbSegments(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void historyGrowsPastItsInitialSize(@TempDir Path directory) throws IOException {
+        try (var chatLog = new ChatLog(directory, 64 * 1_024, 4, 16)) {
+            for (int i = 0; i < 100; i++) {
+                chatLog.append("room", frame("m" + i));
+            }
+            assertEquals(IntStream.range(70, 100).mapToObj(i -> "m" + i).toList(), history(chatLog, "room", 30));
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedRoomIsEvicted(@TempDir Path directory) throws IOException {
+        try (var chatLog = new ChatLog(directory, 64 * 1_024, 4, 2)) {
+            chatLog.append("a", frame("a0"));
+            chatLog.append("b", frame("b0"));
+            chatLog.append("a", frame("a1"));
+            chatLog.append("c", frame("c0")); // evicts b
+            assertEquals(List.of(), history(chatLog, "b", 10));
+            assertEquals(List.of("a0", "a1"), history(chatLog, "a", 10));
+            assertEquals(List.of("c0"), history(chatLog, "c", 10));
+        }
+    }
+
+    @Test
+    public void oldestSegmentsAreDeleted(@TempDir Path directory) throws IOException {
+        try (var chatLog = new ChatLog(directory, 64, 2, 16)) {
+            for (int i = 0; i < 20; i++) {
+                chatLog.append("r", frame("frame" + i)); // 4 records of 15 or 16 bytes per segment
+            }
+            assertEquals(2, nbSegments(directory));
+            var history = history(chatLog, "r", 20);
+            assertTrue(history.size() < 20);
+            assertEquals("frame19", history.get(history.size() - 1));
+        }
+    }
+
+    @Test
+    public void historyReadWhileAppending(@TempDir Path directory) throws Exception {
+        try (var chatLog = new ChatLog(directory, 1_024, 1_000, 16)) {
+            var appender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 2_000; i++) {
+                        chatLog.append("room", frame("m" + i)); // a new segment every 90 frames or so
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            appender.start();
+            while (appender.isAlive()) {
+                var history = history(chatLog, "room", 10);
+                for (int i = 1; i < history.size(); i++) {
+                    var previous = Integer.parseInt(history.get(i - 1).substring(1));
+                    assertEquals("m" + (previous + 1), history.get(i));
+                }
+            }
+            appender.join();
+            assertEquals(IntStream.range(1_990, 2_000).mapToObj(i -> "m" + i).toList(), history(chatLog, "room", 10));
+        }
+    }
+
+    @Test
+    public void reopenStopsAtATruncatedRecord(@TempDir Path directory) throws IOException {
+        try (var chatLog = new ChatLog(directory, 1_024, 4, 16)) {
+            chatLog.append("r", frame("first"));
+            chatLog.append("r", frame("second"));
+        }
+        try (var channel = FileChannel.open(directory.resolve(String.format("%020d.log", 0)), StandardOpenOption.WRITE)) {
+            // a third record whose frame runs past the end of the segment, as after a crash
+            var record = ByteBuffer.allocate(9).putInt(10_000).putInt(1).put((byte) 'r').flip();
+            channel.write(record, 2 * (2 * Integer.BYTES + 1) + "first".length() + "second".length());
+        }
+        try (var chatLog = new ChatLog(directory, 1_024, 4, 16)) {
+            assertEquals(List.of("first", "second"), history(chatLog, "r", 10));
+            chatLog.append("r", frame("third")); // overwrites the truncated record
+            assertEquals(List.of("first", "second", "third"), history(chatLog, "r", 10));
+        }
+    }
+}
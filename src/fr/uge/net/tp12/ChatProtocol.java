@@ -0,0 +1,102 @@
+package fr.uge.net.tp12;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the chat protocol.
+ * <p>
+ * A chat frame is a login and a text, both in UTF-8 and prefixed by their size in bytes.
+ * A control frame starts with a negative opcode instead of the size of the login, followed
+ * by a payload prefixed by its size in bytes. The frames are in read-mode and all the
+ * methods use absolute gets, so they leave the frames untouched.
+ */
+final class ChatProtocol {
+    /**
+     * Join a room, and leave the current one. The payload is the name of the room in UTF-8.
+     * A client is in the room "" until it joins another one.
+     */
+    static final int JOIN = -1;
+    /**
+     * Ask for the last frames sent to the current room. The payload is the number of frames, as an int.
+     */
+    static final int HISTORY = -2;
+    /**
+     * Ask for deflated frames, with an empty payload. A server that supports compression answers
+     * with the same frame, from then on both sides may send DEFLATED frames instead of chat frames.
+     */
+    static final int DEFLATE = -3;
+    /**
+     * A chat frame compressed by FrameDeflater. The payload is the size of the chat frame, as an
+     * int, followed by the chat frame compressed with raw deflate and the preset DICTIONARY.
+     */
+    static final int DEFLATED = -4;
+    /**
+     * Preset dictionary of the DEFLATED frames, each frame being compressed on its own so that
+     * it can be sent as is to every client. Deflate finds the strings at the end first.
+     */
+    static final ByteBuffer DICTIONARY = StandardCharsets.UTF_8.encode(
+            "http://https://www. .com .fr :) :( ;) lol mdr ok okay yes no oui non merci thanks "
+                    + "salut hello bonjour bonsoir what why how where when quoi pourquoi comment "
+                    + "est-ce que c'est il y a je suis tu es nous vous ils elles avec pour dans "
+                    + "the and you that this with have are not for just like will can "
+                    + "le la les un une des du de et est pas que qui ne ce se sur au "
+                    + "\0\0\0\0\0\0").asReadOnlyBuffer();
+
+    private ChatProtocol() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Encodes a control frame
+     *
+     * @param opcode  - negative opcode
+     * @param payload - payload, in read-mode
+     * @return a new buffer in read-mode containing the frame
+     */
+    static ByteBuffer controlFrame(int opcode, ByteBuffer payload) {
+        var buffer = ByteBuffer.allocate(2 * Integer.BYTES + payload.remaining());
+        buffer.putInt(opcode).putInt(payload.remaining()).put(payload);
+        return buffer.flip();
+    }
+
+    static boolean isChat(ByteBuffer frame) {
+        return frame.getInt(frame.position()) >= 0;
+    }
+
+    static int opcode(ByteBuffer frame) {
+        return frame.getInt(frame.position());
+    }
+
+    /**
+     * Return the payload of a control frame
+     *
+     * @param frame - a control frame, in read-mode
+     * @return the payload, in read-mode, sharing its content with frame
+     */
+    static ByteBuffer payload(ByteBuffer frame) {
+        var size = frame.getInt(frame.position() + Integer.BYTES);
+        return frame.slice(frame.position() + 2 * Integer.BYTES, size);
+    }
+
+    /**
+     * Return true if frame is exactly one chat frame with a login of at most maxLoginSize bytes
+     *
+     * @param frame - a frame, in read-mode
+     */
+    static boolean isWellFormedChat(ByteBuffer frame, int maxLoginSize) {
+        if (frame.remaining() < 2 * Integer.BYTES) {
+            return false;
+        }
+        var loginSize = frame.getInt(frame.position());
+        if (loginSize < 0 || loginSize > maxLoginSize || frame.remaining() - 2 * Integer.BYTES < loginSize) {
+            return false;
+        }
+        var textSize = frame.getInt(frame.position() + Integer.BYTES + loginSize);
+        return textSize == frame.remaining() - 2 * Integer.BYTES - loginSize;
+    }
+
+    static String decodePayload(ByteBuffer frame) {
+        return StandardCharsets.UTF_8.decode(payload(frame)).toString();
+    }
+}
@@ -0,0 +1,74 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameDeflaterTest {
+
+    private static ByteBuffer chatFrame(String login, String text) {
+        var UTF8login = StandardCharsets.UTF_8.encode(login);
+        var UTF8text = StandardCharsets.UTF_8.encode(text);
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + UTF8login.remaining() + UTF8text.remaining());
+        return bb.putInt(UTF8login.remaining()).put(UTF8login).putInt(UTF8text.remaining()).put(UTF8text).flip();
+    }
+
+    @Test
+    public void roundTrip() {
+        var frame = chatFrame("login", "bonjour \u00E0 tous, est-ce que vous avez vu le match ? ".repeat(4));
+        var deflater = new FrameDeflater(0);
+        var deflated = deflater.deflate(frame);
+        assertNotNull(deflated);
+        assertEquals(ChatProtocol.DEFLATED, ChatProtocol.opcode(deflated));
+        assertTrue(deflated.remaining() < frame.remaining() / 2);
+        assertEquals(frame, deflater.inflate(deflated, 1_024, 1_024));
+        assertEquals(frame, new FrameDeflater(0).inflate(deflated, 1_024, 1_024));
+    }
+
+    @Test
+    public void noGain() {
+        var random = new Random(0);
+        var text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append((char) ('!' + random.nextInt(90)));
+        }
+        var deflater = new FrameDeflater(0);
+        assertNull(deflater.deflate(chatFrame("a", text.toString())));
+        assertNull(new FrameDeflater(1_000).deflate(chatFrame("login", "hello hello hello hello")));
+    }
+
+    @Test
+    public void tooBig() {
+        var frame = chatFrame("login", "hello ".repeat(100));
+        var deflater = new FrameDeflater(0);
+        var deflated = deflater.deflate(frame);
+        assertNull(deflater.inflate(deflated, frame.remaining() - 1, 1_024));
+        assertNull(deflater.inflate(deflated, frame.remaining(), 4));
+        assertEquals(frame, deflater.inflate(deflated, frame.remaining(), 5));
+    }
+
+    @Test
+    public void malformed() {
+        var frame = chatFrame("login", "hello ".repeat(100));
+        var deflater = new FrameDeflater(0);
+        var deflated = deflater.deflate(frame);
+        var truncated = ChatProtocol.controlFrame(ChatProtocol.DEFLATED,
+                ChatProtocol.payload(deflated).limit(ChatProtocol.payload(deflated).remaining() - 2));
+        assertNull(deflater.inflate(truncated, 1_024, 1_024));
+        var wrongSize = ByteBuffer.allocate(deflated.remaining()).put(deflated.duplicate()).flip();
+        wrongSize.putInt(2 * Integer.BYTES, frame.remaining() - 1);
+        assertNull(deflater.inflate(wrongSize, 1_024, 1_024));
+        var garbage = ChatProtocol.controlFrame(ChatProtocol.DEFLATED,
+                ByteBuffer.allocate(12).putInt(20).putLong(-1).flip());
+        assertNull(deflater.inflate(garbage, 1_024, 1_024));
+        // the deflater is still usable after a malformed frame
+        assertEquals(frame, deflater.inflate(deflated, 1_024, 1_024));
+    }
+}
@@ -0,0 +1,156 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FrameReaderTest {
+
+    private static ByteBuffer frame(String login, String text) {
+        var loginBytes = StandardCharsets.UTF_8.encode(login);
+        var textBytes = StandardCharsets.UTF_8.encode(text);
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + loginBytes.remaining() + textBytes.remaining());
+        bb.putInt(loginBytes.remaining()).put(loginBytes).putInt(textBytes.remaining()).put(textBytes);
+        return bb.flip();
+    }
+
+    @Test
+    public void simple() {
+        var expected = frame("\u20ACa\u20AC", "hello");
+        var bb = ByteBuffer.allocate(1024);
+        bb.put(expected.duplicate());
+        var fr = new FrameReader();
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        assertEquals(expected, fr.get());
+        assertTrue(fr.get().isReadOnly());
+        assertEquals(0, bb.position());
+        assertEquals(bb.capacity(), bb.limit());
+    }
+
+    @Test
+    public void reset() {
+        var expected = frame("login", "text");
+        var expected2 = frame("", "other text");
+        var bb = ByteBuffer.allocate(1024);
+        bb.put(expected.duplicate()).put(expected2.duplicate());
+        var fr = new FrameReader();
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        assertEquals(expected, fr.get());
+        assertEquals(expected2.remaining(), bb.position());
+        fr.reset();
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        assertEquals(expected2, fr.get());
+        assertEquals(0, bb.position());
+    }
+
+    @Test
+    public void smallBuffer() {
+        var expected = frame("\u20ACa\u20AC", "\u20ACa\u20ACabcd");
+        var bb = expected.duplicate();
+        var bbSmall = ByteBuffer.allocate(2);
+        var fr = new FrameReader();
+        while (bb.hasRemaining()) {
+            while (bb.hasRemaining() && bbSmall.hasRemaining()) {
+                bbSmall.put(bb.get());
+            }
+            if (bb.hasRemaining()) {
+                assertEquals(Reader.ProcessStatus.REFILL, fr.process(bbSmall));
+            } else {
+                assertEquals(Reader.ProcessStatus.DONE, fr.process(bbSmall));
+            }
+        }
+        assertEquals(expected, fr.get());
+    }
+
+    @Test
+    public void controlFrame() {
+        var room = StandardCharsets.UTF_8.encode("room");
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt(ChatProtocol.JOIN).putInt(room.remaining()).put(room.duplicate());
+        var fr = new FrameReader();
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        var frame = fr.get();
+        assertEquals(ChatProtocol.JOIN, ChatProtocol.opcode(frame));
+        assertEquals(room, ChatProtocol.payload(frame));
+        assertEquals("room", ChatProtocol.decodePayload(frame));
+        assertEquals(0, bb.position());
+    }
+
+    @Test
+    public void errorGet() {
+        var fr = new FrameReader();
+        assertThrows(IllegalStateException.class, fr::get);
+    }
+
+    @Test
+    public void errorTooBig() {
+        var fr = new FrameReader();
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt(5).put(StandardCharsets.UTF_8.encode("login")).putInt(1025);
+        assertEquals(Reader.ProcessStatus.ERROR, fr.process(bb));
+    }
+
+    @Test
+    public void bigText() {
+        var expected = frame("login", "\u20ACa".repeat(10_000));
+        var bb = expected.duplicate();
+        var bbSmall = ByteBuffer.allocate(1024);
+        var fr = new FrameReader(100_000);
+        var status = Reader.ProcessStatus.REFILL;
+        while (bb.hasRemaining()) {
+            assertEquals(Reader.ProcessStatus.REFILL, status);
+            while (bb.hasRemaining() && bbSmall.hasRemaining()) {
+                bbSmall.put(bb.get());
+            }
+            status = fr.process(bbSmall);
+        }
+        assertEquals(Reader.ProcessStatus.DONE, status);
+        assertEquals(expected, fr.get());
+        fr.reset();
+        bbSmall.clear().putInt(5).put(StandardCharsets.UTF_8.encode("login")).putInt(100_001);
+        assertEquals(Reader.ProcessStatus.ERROR, fr.process(bbSmall));
+    }
+
+    @Test
+    public void manyFramesReadMode() {
+        var bb = ByteBuffer.allocate(4096);
+        for (int i = 0; i < 100; i++) {
+            bb.put(frame("login" + i, "text" + i));
+        }
+        bb.flip();
+        var fr = new FrameReader();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Reader.ProcessStatus.DONE, fr.processReadMode(bb));
+            assertEquals(frame("login" + i, "text" + i), fr.get());
+            fr.reset();
+        }
+        assertEquals(0, bb.remaining());
+        assertEquals(Reader.ProcessStatus.REFILL, fr.processReadMode(bb));
+    }
+
+    @Test
+    public void trimOnlyBetweenFrames() {
+        var expected = frame("login", "hello");
+        var fr = new FrameReader();
+        var bb = ByteBuffer.allocate(1024);
+        bb.put(expected.duplicate().limit(7));
+        assertEquals(Reader.ProcessStatus.REFILL, fr.process(bb));
+        assertFalse(fr.trim()); // half a frame is held
+        bb.put(expected.duplicate().position(7));
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        assertEquals(expected, fr.get());
+        fr.reset();
+        assertTrue(fr.trim());
+        bb.put(expected.duplicate().limit(3));
+        assertEquals(Reader.ProcessStatus.REFILL, fr.process(bb));
+        bb.put(expected.duplicate().position(3));
+        assertEquals(Reader.ProcessStatus.DONE, fr.process(bb));
+        assertEquals(expected, fr.get());
+    }
+}
@@ -0,0 +1,242 @@
+package fr.uge.net.tp12;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Reader running a flat program built by the combinators of Readers.
+ * <p>
+ * The program is an array of instructions: reading an int, a long or a sized sequence of
+ * bytes pushes the value on a stack, and the combinators pop the values they need and push
+ * their result. A whole frame is read by one loop over the instructions, with no call to the
+ * readers it was composed of and no flip or compact of the buffer between two fields.
+ * The values are read straight from the buffer when they are complete, and only copied
+ * when they straddle a refill.
+ */
+public final class FusedReader<T> implements Reader<T> {
+
+    private final Program program;
+    private final Object[] stack;
+    private final int[] loops; // iterations left for each repeat being read
+    private final ByteBuffer scratch = ByteBuffer.allocate(Long.BYTES); // write-mode, int or long split by a refill
+    private ByteBuffer bytes; // write-mode, sequence of bytes split by a refill
+    private State state = State.WAITING;
+    private int pc;
+    private int sp;
+    private int loopTop;
+    private int size = -1; // size of the sequence of bytes being read, -1 if not read yet
+    private T value;
+
+    FusedReader(Program program) {
+        this.program = program;
+        this.stack = new Object[program.maxStack()];
+        this.loops = new int[program.maxLoops()];
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            return processReadMode(buffer);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ProcessStatus processReadMode(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+        var code = program.code();
+        var constants = program.constants();
+        while (pc < code.length) {
+            switch (code[pc]) {
+                case Program.INT -> {
+                    if (scratch.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+                        stack[sp++] = buffer.getInt();
+                    } else {
+                        if (!gather(buffer, Integer.BYTES)) {
+                            return ProcessStatus.REFILL;
+                        }
+                        stack[sp++] = scratch.flip().getInt();
+                        scratch.clear();
+                    }
+                    pc += 1;
+                }
+                case Program.LONG -> {
+                    if (scratch.position() == 0 && buffer.remaining() >= Long.BYTES) {
+                        stack[sp++] = buffer.getLong();
+                    } else {
+                        if (!gather(buffer, Long.BYTES)) {
+                            return ProcessStatus.REFILL;
+                        }
+                        stack[sp++] = scratch.flip().getLong();
+                        scratch.clear();
+                    }
+                    pc += 1;
+                }
+                case Program.BYTES -> {
+                    if (size < 0) {
+                        if (scratch.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+                            size = buffer.getInt();
+                        } else {
+                            if (!gather(buffer, Integer.BYTES)) {
+                                return ProcessStatus.REFILL;
+                            }
+                            size = scratch.flip().getInt();
+                            scratch.clear();
+                        }
+                        if (size < 0 || size > code[pc + 1]) {
+                            state = State.ERROR;
+                            return ProcessStatus.ERROR;
+                        }
+                    }
+                    var decoder = (Function<ByteBuffer, Object>) constants[code[pc + 2]];
+                    if ((bytes == null || bytes.position() == 0) && buffer.remaining() >= size) {
+                        stack[sp++] = decoder.apply(buffer.slice(buffer.position(), size));
+                        buffer.position(buffer.position() + size);
+                    } else {
+                        if (bytes == null) {
+                            bytes = ByteBuffer.allocate(program.maxBytes());
+                        }
+                        var toBeRead = Math.min(size - bytes.position(), buffer.remaining());
+                        bytes.put(buffer.slice(buffer.position(), toBeRead));
+                        buffer.position(buffer.position() + toBeRead);
+                        if (bytes.position() < size) {
+                            return ProcessStatus.REFILL;
+                        }
+                        stack[sp++] = decoder.apply(bytes.flip());
+                        bytes.clear();
+                    }
+                    size = -1;
+                    pc += 3;
+                }
+                case Program.MAP -> {
+                    var mapper = (Function<Object, Object>) constants[code[pc + 1]];
+                    stack[sp - 1] = mapper.apply(stack[sp - 1]);
+                    pc += 2;
+                }
+                case Program.COMBINE -> {
+                    var combiner = (BiFunction<Object, Object, Object>) constants[code[pc + 1]];
+                    sp--;
+                    stack[sp - 1] = combiner.apply(stack[sp - 1], stack[sp]);
+                    stack[sp] = null;
+                    pc += 2;
+                }
+                case Program.REPEAT_BEGIN -> {
+                    var n = code[pc + 1];
+                    if (n == 0) {
+                        stack[sp++] = List.of();
+                        pc += code[pc + 2];
+                    } else {
+                        stack[sp++] = new ArrayList<>(n);
+                        loops[loopTop++] = n;
+                        pc += 3;
+                    }
+                }
+                case Program.REPEAT_END -> {
+                    sp--;
+                    ((List<Object>) stack[sp - 1]).add(stack[sp]);
+                    stack[sp] = null;
+                    if (--loops[loopTop - 1] > 0) {
+                        pc -= code[pc + 1];
+                    } else {
+                        loopTop--;
+                        pc += 2;
+                    }
+                }
+                default -> throw new AssertionError();
+            }
+        }
+        value = (T) stack[0];
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    /**
+     * Copy the bytes of buffer into scratch until it holds n bytes
+     *
+     * @return true if scratch holds n bytes
+     */
+    private boolean gather(ByteBuffer buffer, int n) {
+        var toBeRead = Math.min(n - scratch.position(), buffer.remaining());
+        scratch.put(buffer.slice(buffer.position(), toBeRead));
+        buffer.position(buffer.position() + toBeRead);
+        return scratch.position() == n;
+    }
+
+    @Override
+    public T get() {
+        if (state != State.DONE) {
+            throw new IllegalStateException();
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        state = State.WAITING;
+        pc = 0;
+        sp = 0;
+        loopTop = 0;
+        size = -1;
+        value = null;
+        Arrays.fill(stack, null);
+        scratch.clear();
+        if (bytes != null) {
+            bytes.clear();
+        }
+    }
+
+    Program program() {
+        return program;
+    }
+
+    private enum State {
+        DONE, WAITING, ERROR
+    }
+
+    /**
+     * Instructions of a FusedReader. The jumps are relative, so that the program of a reader
+     * can be copied as is into the program of a bigger one, only the indexes of the constants
+     * have to be shifted.
+     */
+    record Program(int[] code, Object[] constants, int maxStack, int maxLoops, int maxBytes) {
+        static final int INT = 0; // no operand
+        static final int LONG = 1; // no operand
+        static final int BYTES = 2; // max size, index of the decoder
+        static final int MAP = 3; // index of the function
+        static final int COMBINE = 4; // index of the function
+        static final int REPEAT_BEGIN = 5; // number of repetitions, jump after the REPEAT_END
+        static final int REPEAT_END = 6; // jump back to the body
+
+        /**
+         * Copy the instructions into target at offset, shifting the indexes of the constants
+         */
+        void copyCodeTo(int[] target, int offset, int constantShift) {
+            System.arraycopy(code, 0, target, offset, code.length);
+            for (int i = 0; i < code.length; ) {
+                switch (code[i]) {
+                    case INT, LONG -> i += 1;
+                    case BYTES -> {
+                        target[offset + i + 2] += constantShift;
+                        i += 3;
+                    }
+                    case MAP, COMBINE -> {
+                        target[offset + i + 1] += constantShift;
+                        i += 2;
+                    }
+                    case REPEAT_BEGIN -> i += 3;
+                    case REPEAT_END -> i += 2;
+                    default -> throw new AssertionError();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package fr.uge.net.tp12;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * FIFO of ints in a ring buffer that doubles when full, so that queueing an int allocates
+ * nothing (no Integer) once the queue has grown to its working size. Not thread safe.
+ */
+public class IntQueue {
+    private int[] elements;
+    private int head; // index of the first element
+    private int size;
+
+    /**
+     * @param capacity - initial capacity, rounded up to a power of two
+     */
+    public IntQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+        var length = Integer.highestOneBit(capacity);
+        elements = new int[length == capacity ? length : length << 1];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void addLast(int element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = element;
+        size++;
+    }
+
+    public int pollFirst() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        var element = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return element;
+    }
+
+    private void grow() {
+        var newElements = Arrays.copyOf(elements, elements.length * 2);
+        // the elements before head wrapped around, they go after the old end
+        System.arraycopy(elements, 0, newElements, elements.length, head);
+        elements = newElements;
+    }
+}
@@ -1,15 +1,14 @@
 package fr.uge.net.tp12;
 
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
+/**
+ * A chat message, sent with a MessageWriter
+ */
 public class Message {
 
     private final String login;
     private final String text;
-    private ByteBuffer internalBuffer = null;
-
 
     public Message(String login, String text) {
         Objects.requireNonNull(login);
@@ -22,46 +21,16 @@ public class Message {
         this(msg.login, msg.text);
     }
 
-    /**
-     * The convention is that internalBuffer is in write-mode before the call to setBuffer and
-     * after the call
-     */
-    private void setBuffer() {
-        var UTF8login = StandardCharsets.UTF_8.encode(login);
-        var UTF8Content = StandardCharsets.UTF_8.encode(text);
-        internalBuffer = ByteBuffer.allocate(UTF8login.remaining() + UTF8Content.remaining() + (Integer.BYTES * 2));
-        internalBuffer.putInt(UTF8login.limit()).put(UTF8login);
-        internalBuffer.putInt(UTF8Content.limit()).put(UTF8Content);
+    @Override
+    public String toString() {
+        return login + " : " + text;
     }
 
-    /**
-     * The convention is that buffer is in write-mode before the call to fillBuffer and
-     * after the call
-     */
-    public void fillBuffer(ByteBuffer buffer) {
-        if (internalBuffer == null) {
-            setBuffer();
-        }
-        if (internalBuffer.position() == 0) {
-            return;
-        }
-        internalBuffer.flip(); //was in WRITE, needs to be READ.
-        var oldLimit = internalBuffer.limit();
-        var limitNew = Math.min(buffer.remaining(), internalBuffer.remaining());
-
-        internalBuffer.limit(limitNew); // setting limit to max byte available to send/be put in buffer
-        buffer.put(internalBuffer);
-        internalBuffer.limit(oldLimit);
-        internalBuffer.compact(); // removing from buffer all that was read + putting it back to WRITE mode.
+    public String getLogin() {
+        return login;
     }
 
-
-    /**
-     * Return true if message is completely send, otherwise false
-     * The convention is that internalBuffer is in write-mode before the call to isDone and
-     * after the call
-     */
-    public boolean isDone() {
-        return internalBuffer.position() == 0;
+    public String getText() {
+        return text;
     }
 }
@@ -4,15 +4,44 @@ import java.nio.ByteBuffer;
 
 public class MessageReader implements Reader<Message> {
 
-    private final StringReader stringReader = new StringReader();
+    private static final int MAX_LOGIN_SIZE = 1_024;
+    private static final int LOGIN_CACHE_SIZE = 256; // logins of the clients talking to this one
+    private final StringCache loginCache = new StringCache(LOGIN_CACHE_SIZE);
+    private final StringReader loginReader = new StringReader(MAX_LOGIN_SIZE, loginCache);
+    private final StringReader textReader;
     private State state = State.WAITING_LOGIN;
     private String login;
     private String text;
 
+    public MessageReader() {
+        textReader = new StringReader();
+    }
+
+    /**
+     * @param maxTextSize - maximum size in bytes of the text, it can be much bigger than the
+     *                    default one since the memory of a big text is only held while it is read
+     */
+    public MessageReader(int maxTextSize) {
+        textReader = new StringReader(maxTextSize);
+    }
+
     @Override
     public ProcessStatus process(ByteBuffer bb) {
+        bb.flip();
+        try {
+            return processReadMode(bb);
+        } finally {
+            bb.compact();
+        }
+    }
+
+    @Override
+    public ProcessStatus processReadMode(ByteBuffer bb) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
         if (state == State.WAITING_LOGIN) {
-            switch (stringReader.process(bb)) {
+            switch (loginReader.processReadMode(bb)) {
                 case REFILL -> {
                     return ProcessStatus.REFILL;
                 }
@@ -21,14 +50,13 @@ public class MessageReader implements Reader<Message> {
                     return ProcessStatus.ERROR;
                 }
                 case DONE -> {
-                    login = stringReader.get();
+                    login = loginReader.get();
                     state = State.WAITING_TEXT;
                 }
             }
         }
 
-        stringReader.reset();
-        switch (stringReader.process(bb)) {
+        switch (textReader.processReadMode(bb)) {
             case REFILL -> {
                 return ProcessStatus.REFILL;
             }
@@ -37,13 +65,20 @@ public class MessageReader implements Reader<Message> {
                 return ProcessStatus.ERROR;
             }
             case DONE -> {
-                text = stringReader.get();
+                text = textReader.get();
                 state = State.DONE;
             }
         }
         return ProcessStatus.DONE;
     }
 
+    /**
+     * Return the cache of the logins, with its hit and miss counters
+     */
+    public StringCache loginCache() {
+        return loginCache;
+    }
+
     @Override
     public Message get() {
         if (state != State.DONE) {
@@ -54,7 +89,8 @@ public class MessageReader implements Reader<Message> {
 
     @Override
     public void reset() {
-        stringReader.reset();
+        loginReader.reset();
+        textReader.reset();
         state = State.WAITING_LOGIN;
         login = null;
         text = null;
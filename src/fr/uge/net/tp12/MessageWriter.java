@@ -0,0 +1,60 @@
+package fr.uge.net.tp12;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a message as a frame (login and text, both prefixed by their size), the counterpart
+ * of MessageReader. Nothing is allocated per message, see StringWriter.
+ */
+public class MessageWriter implements Writer<Message> {
+
+    private final StringWriter loginWriter = new StringWriter();
+    private final StringWriter textWriter = new StringWriter();
+    private State state = State.EMPTY;
+
+    /**
+     * Return the size in bytes of text once encoded, as it will be written
+     */
+    public int textSize(String text) {
+        return textWriter.encodedSize(text);
+    }
+
+    @Override
+    public void set(Message message) {
+        if (state != State.EMPTY) {
+            throw new IllegalStateException();
+        }
+        loginWriter.set(message.getLogin());
+        textWriter.set(message.getText());
+        state = State.WRITING_LOGIN;
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state != State.WRITING_LOGIN && state != State.WRITING_TEXT) {
+            throw new IllegalStateException();
+        }
+        if (state == State.WRITING_LOGIN) {
+            if (loginWriter.process(buffer) == ProcessStatus.FULL) {
+                return ProcessStatus.FULL;
+            }
+            state = State.WRITING_TEXT;
+        }
+        if (textWriter.process(buffer) == ProcessStatus.FULL) {
+            return ProcessStatus.FULL;
+        }
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    @Override
+    public void reset() {
+        loginWriter.reset();
+        textWriter.reset();
+        state = State.EMPTY;
+    }
+
+    private enum State {
+        EMPTY, WRITING_LOGIN, WRITING_TEXT, DONE
+    }
+}
@@ -0,0 +1,74 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MessageWriterTest {
+
+    private static ByteBuffer frame(String login, String text) {
+        var UTF8login = StandardCharsets.UTF_8.encode(login);
+        var UTF8text = StandardCharsets.UTF_8.encode(text);
+        var bb = ByteBuffer.allocate(2 * Integer.BYTES + UTF8login.remaining() + UTF8text.remaining());
+        return bb.putInt(UTF8login.remaining()).put(UTF8login).putInt(UTF8text.remaining()).put(UTF8text).flip();
+    }
+
+    @Test
+    public void simple() {
+        var bb = ByteBuffer.allocate(1024);
+        var writer = new MessageWriter();
+        writer.set(new Message("login", "\u20ACa\u20AC"));
+        assertEquals(Writer.ProcessStatus.DONE, writer.process(bb));
+        assertEquals(frame("login", "\u20ACa\u20AC"), bb.flip());
+    }
+
+    @Test
+    public void reset() {
+        var bb = ByteBuffer.allocate(1024);
+        var writer = new MessageWriter();
+        writer.set(new Message("a", "b"));
+        assertEquals(Writer.ProcessStatus.DONE, writer.process(bb));
+        writer.reset();
+        writer.set(new Message("c", "d\uD83D\uDE00"));
+        assertEquals(Writer.ProcessStatus.DONE, writer.process(bb));
+        var expected = ByteBuffer.allocate(1024).put(frame("a", "b")).put(frame("c", "d\uD83D\uDE00")).flip();
+        assertEquals(expected, bb.flip());
+    }
+
+    @Test
+    public void smallBuffer() {
+        var text = "h\u00E9llo \u20AC \uD83D\uDE00 ".repeat(100);
+        var bb = ByteBuffer.allocate(4);
+        var out = ByteBuffer.allocate(4096);
+        var writer = new MessageWriter();
+        writer.set(new Message("\u00E9l\u00E8ve", text));
+        while (writer.process(bb) == Writer.ProcessStatus.FULL) {
+            out.put(bb.flip());
+            bb.clear();
+        }
+        out.put(bb.flip());
+        assertEquals(frame("\u00E9l\u00E8ve", text), out.flip());
+    }
+
+    @Test
+    public void loneSurrogate() {
+        var bb = ByteBuffer.allocate(1024);
+        var writer = new MessageWriter();
+        writer.set(new Message("login", "a\uD83Db"));
+        assertEquals(Writer.ProcessStatus.DONE, writer.process(bb));
+        var reader = new MessageReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals("a?b", reader.get().getText());
+    }
+
+    @Test
+    public void errorNotReset() {
+        var writer = new MessageWriter();
+        writer.set(new Message("a", "b"));
+        assertThrows(IllegalStateException.class, () -> writer.set(new Message("c", "d")));
+    }
+}
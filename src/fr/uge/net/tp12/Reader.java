@@ -8,6 +8,23 @@ public interface Reader<T> {
 
     ProcessStatus process(ByteBuffer bb);
 
+    /**
+     * Same as process, but bb is in read-mode before and after the call: the bytes used are
+     * skipped by moving its position, and it is neither flipped nor compacted. A caller can
+     * then read several values and compact bb only once.
+     * <p>
+     * The default implementation goes through process, readers should override it to avoid
+     * the compaction.
+     */
+    default ProcessStatus processReadMode(ByteBuffer bb) {
+        bb.compact();
+        try {
+            return process(bb);
+        } finally {
+            bb.flip();
+        }
+    }
+
     T get();
 
     void reset();
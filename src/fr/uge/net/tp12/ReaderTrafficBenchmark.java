@@ -0,0 +1,188 @@
+package fr.uge.net.tp12;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the readers with the traffic a server sees: the frames of NB_FRAMES messages cut in
+ * chunks as the reads of a socket would, from one frame per read to one byte per read.
+ * An operation is one frame, so the score is in frames per second. Run with the GC profiler
+ * (as main does) to get the bytes allocated per frame in gc.alloc.rate.norm.
+ * <p>
+ * The readers of tp13 are the same as the ones of tp12, they are not benchmarked twice.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReaderTrafficBenchmark {
+    private static final int NB_FRAMES = 1_024;
+    private static final int BUFFER_SIZE = 16 * 1_024; // as big as the biggest chunk
+    private static final int MAX_RANDOM_CHUNK = 64;
+
+    /**
+     * How the traffic is cut: one frame per chunk, 8 KiB chunks holding many frames, chunks of
+     * random sizes between 1 and MAX_RANDOM_CHUNK bytes, or chunks of one byte
+     */
+    @Param({"WHOLE", "MANY_PER_READ", "RANDOM_SPLITS", "ONE_BYTE"})
+    public String split;
+
+    @Param({"ASCII", "UTF8"})
+    public String text;
+
+    /**
+     * process() flips and compacts the buffer on each call, readMode flips once per chunk and
+     * calls processReadMode() until all the frames of the chunk are read, as ServerChaton does
+     */
+    @Param({"process", "readMode"})
+    public String mode;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final IntReader intReader = new IntReader();
+    private final StringReader stringReader = new StringReader();
+    private final MessageReader messageReader = new MessageReader();
+    private final FrameReader frameReader = new FrameReader();
+    private Traffic ints;
+    private Traffic strings;
+    private Traffic messages;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ReaderTrafficBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+
+    /**
+     * The frames of a benchmark, with the bounds of the chunks they are cut in
+     */
+    private record Traffic(ByteBuffer bytes, int[] chunkEnds) {
+    }
+
+    @Setup
+    public void setup() {
+        var sample = text.equals("ASCII")
+                ? "Hello everyone, this is message number "
+                : "H\u00E9llo \u00E0 tous, \u20AC\u20AC ceci est le message \uD83D\uDE00 num\u00E9ro ";
+        var intBytes = ByteBuffer.allocate(NB_FRAMES * Integer.BYTES);
+        var stringBytes = ByteBuffer.allocate(NB_FRAMES * 1_024);
+        var messageBytes = ByteBuffer.allocate(NB_FRAMES * 1_024);
+        var intEnds = new int[NB_FRAMES];
+        var stringEnds = new int[NB_FRAMES];
+        var messageEnds = new int[NB_FRAMES];
+        for (int i = 0; i < NB_FRAMES; i++) {
+            var login = StandardCharsets.UTF_8.encode("login" + i % 16);
+            var content = StandardCharsets.UTF_8.encode(sample + i);
+            intEnds[i] = intBytes.putInt(i).position();
+            stringEnds[i] = stringBytes.putInt(content.remaining()).put(content.duplicate()).position();
+            messageBytes.putInt(login.remaining()).put(login).putInt(content.remaining()).put(content);
+            messageEnds[i] = messageBytes.position();
+        }
+        ints = cut(intBytes.flip(), intEnds);
+        strings = cut(stringBytes.flip(), stringEnds);
+        messages = cut(messageBytes.flip(), messageEnds);
+    }
+
+    /**
+     * Cut bytes in chunks following split
+     *
+     * @param frameEnds - position of the end of each frame
+     */
+    private Traffic cut(ByteBuffer bytes, int[] frameEnds) {
+        var chunkEnds = switch (split) {
+            case "WHOLE" -> frameEnds;
+            case "MANY_PER_READ" -> ends(bytes.limit(), 8 * 1_024, null);
+            case "RANDOM_SPLITS" -> ends(bytes.limit(), MAX_RANDOM_CHUNK, new Random(0));
+            case "ONE_BYTE" -> ends(bytes.limit(), 1, null);
+            default -> throw new IllegalArgumentException("Unknown split " + split);
+        };
+        return new Traffic(bytes, chunkEnds);
+    }
+
+    private static int[] ends(int length, int chunkSize, Random random) {
+        var ends = new int[length];
+        var count = 0;
+        for (int end = 0; end < length; ) {
+            end = Math.min(length, end + (random == null ? chunkSize : 1 + random.nextInt(chunkSize)));
+            ends[count++] = end;
+        }
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Feed the chunks of traffic to reader, as the reads of a socket
+     */
+    private void feed(Traffic traffic, Reader<?> reader, Blackhole blackhole) {
+        var readMode = mode.equals("readMode");
+        var start = 0;
+        buffer.clear();
+        for (var end : traffic.chunkEnds) {
+            buffer.put(traffic.bytes.slice(start, end - start));
+            start = end;
+            if (readMode) {
+                buffer.flip();
+            }
+            for (; ; ) {
+                var status = readMode ? reader.processReadMode(buffer) : reader.process(buffer);
+                if (status == Reader.ProcessStatus.ERROR) {
+                    throw new AssertionError("Malformed traffic");
+                }
+                if (status == Reader.ProcessStatus.REFILL) {
+                    break;
+                }
+                blackhole.consume(reader.get());
+                reader.reset();
+            }
+            if (readMode) {
+                buffer.compact();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NB_FRAMES)
+    public void intReader(Blackhole blackhole) {
+        feed(ints, intReader, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NB_FRAMES)
+    public void stringReader(Blackhole blackhole) {
+        feed(strings, stringReader, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NB_FRAMES)
+    public void messageReader(Blackhole blackhole) {
+        feed(messages, messageReader, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NB_FRAMES)
+    public void frameReader(Blackhole blackhole) {
+        feed(messages, frameReader, blackhole);
+    }
+}
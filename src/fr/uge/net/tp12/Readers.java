@@ -0,0 +1,120 @@
+package fr.uge.net.tp12;
+
+import fr.uge.net.tp12.FusedReader.Program;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Combinators to build the readers of frames made of ints, longs and sized sequences of bytes.
+ * <p>
+ * A combinator does not wrap the readers it is given: it concatenates their programs into a
+ * new FusedReader, so a composed reader runs in one loop like a hand-written one. The readers
+ * given to a combinator are left untouched and can still be used on their own.
+ * <pre>
+ * var messageReader = Readers.sequence(Readers.string(1_024), Readers.string(1_024), Message::new);
+ * </pre>
+ */
+public final class Readers {
+    private static final Function<ByteBuffer, String> UTF8_DECODER = bb -> StandardCharsets.UTF_8.decode(bb).toString();
+    private static final Object[] NO_CONSTANTS = new Object[0];
+
+    private Readers() {
+        throw new AssertionError();
+    }
+
+    public static FusedReader<Integer> intReader() {
+        return new FusedReader<>(new Program(new int[]{Program.INT}, NO_CONSTANTS, 1, 0, 0));
+    }
+
+    public static FusedReader<Long> longReader() {
+        return new FusedReader<>(new Program(new int[]{Program.LONG}, NO_CONSTANTS, 1, 0, 0));
+    }
+
+    /**
+     * Return a reader of a sequence of bytes prefixed by its size as an int
+     *
+     * @param maxSize - maximum size, a bigger size is an error
+     * @param decoder - function computing the value from the bytes, in a buffer in read-mode that
+     *                must not be used after the call
+     */
+    public static <T> FusedReader<T> lengthPrefixed(int maxSize, Function<? super ByteBuffer, ? extends T> decoder) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        Objects.requireNonNull(decoder);
+        return new FusedReader<>(new Program(new int[]{Program.BYTES, maxSize, 0}, new Object[]{decoder}, 1, 0, maxSize));
+    }
+
+    /**
+     * Return a reader of a string encoded in UTF-8 prefixed by its size in bytes
+     *
+     * @param maxSize - maximum size in bytes
+     */
+    public static FusedReader<String> string(int maxSize) {
+        return lengthPrefixed(maxSize, UTF8_DECODER);
+    }
+
+    public static <T, R> FusedReader<R> map(FusedReader<T> reader, Function<? super T, ? extends R> mapper) {
+        Objects.requireNonNull(mapper);
+        var program = reader.program();
+        var length = program.code().length;
+        var code = new int[length + 2];
+        program.copyCodeTo(code, 0, 0);
+        code[length] = Program.MAP;
+        code[length + 1] = program.constants().length;
+        var constants = Arrays.copyOf(program.constants(), program.constants().length + 1);
+        constants[program.constants().length] = mapper;
+        return new FusedReader<>(new Program(code, constants, program.maxStack(), program.maxLoops(), program.maxBytes()));
+    }
+
+    /**
+     * Return a reader of the value read by first followed by the value read by second
+     *
+     * @param combiner - function computing the value from the two values read
+     */
+    public static <A, B, R> FusedReader<R> sequence(FusedReader<A> first, FusedReader<B> second,
+                                                    BiFunction<? super A, ? super B, ? extends R> combiner) {
+        Objects.requireNonNull(combiner);
+        var p1 = first.program();
+        var p2 = second.program();
+        var code = new int[p1.code().length + p2.code().length + 2];
+        p1.copyCodeTo(code, 0, 0);
+        p2.copyCodeTo(code, p1.code().length, p1.constants().length);
+        code[code.length - 2] = Program.COMBINE;
+        code[code.length - 1] = p1.constants().length + p2.constants().length;
+        var constants = new Object[p1.constants().length + p2.constants().length + 1];
+        System.arraycopy(p1.constants(), 0, constants, 0, p1.constants().length);
+        System.arraycopy(p2.constants(), 0, constants, p1.constants().length, p2.constants().length);
+        constants[constants.length - 1] = combiner;
+        return new FusedReader<>(new Program(code, constants,
+                Math.max(p1.maxStack(), 1 + p2.maxStack()), // the first value waits for the second
+                Math.max(p1.maxLoops(), p2.maxLoops()),
+                Math.max(p1.maxBytes(), p2.maxBytes())));
+    }
+
+    /**
+     * Return a reader of n consecutive values read by reader
+     */
+    public static <T> FusedReader<List<T>> repeat(int n, FusedReader<T> reader) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        var program = reader.program();
+        var length = program.code().length;
+        var code = new int[3 + length + 2];
+        code[0] = Program.REPEAT_BEGIN;
+        code[1] = n;
+        code[2] = code.length;
+        program.copyCodeTo(code, 3, 0);
+        code[3 + length] = Program.REPEAT_END;
+        code[3 + length + 1] = length;
+        return new FusedReader<>(new Program(code, program.constants(),
+                1 + program.maxStack(), 1 + program.maxLoops(), program.maxBytes()));
+    }
+}
@@ -0,0 +1,130 @@
+package fr.uge.net.tp12;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-written readers with the same readers built with Readers.
+ * Each benchmark decodes a buffer full of frames, as a server does after a big read.
+ * <p>
+ * The fused readers only work in read-mode, so they are compared with the *ReadMode
+ * benchmarks. The others go through process, which flips and compacts the buffer for
+ * each frame, and measure the cost of that protocol.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadersBenchmark {
+    private static final int NB_MESSAGES = 256;
+    private static final int NB_INTS = 1_024;
+
+    private final ByteBuffer messages = ByteBuffer.allocateDirect(64 * 1_024); // write-mode
+    private final ByteBuffer ints = ByteBuffer.allocateDirect(NB_INTS * Integer.BYTES); // write-mode
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1_024);
+    private final MessageReader messageReader = new MessageReader();
+    private final FusedReader<Message> fusedMessageReader =
+            Readers.sequence(Readers.string(1_024), Readers.string(1_024), Message::new);
+    private final IntReader intReader = new IntReader();
+    private final FusedReader<List<Integer>> fusedIntsReader = Readers.repeat(NB_INTS, Readers.intReader());
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ReadersBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < NB_MESSAGES; i++) {
+            var login = StandardCharsets.UTF_8.encode("login" + i);
+            var text = StandardCharsets.UTF_8.encode("Bonjour \u00E0 tous, message num\u00E9ro " + i);
+            messages.putInt(login.remaining()).put(login).putInt(text.remaining()).put(text);
+        }
+        for (int i = 0; i < NB_INTS; i++) {
+            ints.putInt(i);
+        }
+    }
+
+    /**
+     * Put the frames in buffer, in write-mode as after a read from a socket
+     */
+    private ByteBuffer fill(ByteBuffer frames) {
+        return buffer.clear().put(frames.duplicate().flip());
+    }
+
+    @Benchmark
+    public void messagesHandWritten(Blackhole blackhole) {
+        var bb = fill(messages);
+        for (int i = 0; i < NB_MESSAGES; i++) {
+            blackhole.consume(messageReader.process(bb));
+            blackhole.consume(messageReader.get());
+            messageReader.reset();
+        }
+    }
+
+    @Benchmark
+    public void messagesHandWrittenReadMode(Blackhole blackhole) {
+        var bb = fill(messages).flip();
+        for (int i = 0; i < NB_MESSAGES; i++) {
+            blackhole.consume(messageReader.processReadMode(bb));
+            blackhole.consume(messageReader.get());
+            messageReader.reset();
+        }
+    }
+
+    @Benchmark
+    public void messagesFused(Blackhole blackhole) {
+        var bb = fill(messages).flip();
+        for (int i = 0; i < NB_MESSAGES; i++) {
+            blackhole.consume(fusedMessageReader.processReadMode(bb));
+            blackhole.consume(fusedMessageReader.get());
+            fusedMessageReader.reset();
+        }
+    }
+
+    @Benchmark
+    public void intsHandWritten(Blackhole blackhole) {
+        var bb = fill(ints);
+        for (int i = 0; i < NB_INTS; i++) {
+            blackhole.consume(intReader.process(bb));
+            blackhole.consume(intReader.get());
+            intReader.reset();
+        }
+    }
+
+    @Benchmark
+    public void intsHandWrittenReadMode(Blackhole blackhole) {
+        var bb = fill(ints).flip();
+        for (int i = 0; i < NB_INTS; i++) {
+            blackhole.consume(intReader.processReadMode(bb));
+            blackhole.consume(intReader.get());
+            intReader.reset();
+        }
+    }
+
+    @Benchmark
+    public void intsFused(Blackhole blackhole) {
+        var bb = fill(ints).flip();
+        blackhole.consume(fusedIntsReader.processReadMode(bb));
+        blackhole.consume(fusedIntsReader.get());
+        fusedIntsReader.reset();
+    }
+}
@@ -0,0 +1,104 @@
+package fr.uge.net.tp12;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ReadersTest {
+
+    private static FusedReader<String> messageReader() {
+        return Readers.sequence(Readers.string(1_024), Readers.string(1_024), (login, text) -> login + ":" + text);
+    }
+
+    private static void putString(ByteBuffer bb, String string) {
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        bb.putInt(bytes.remaining()).put(bytes);
+    }
+
+    @Test
+    public void simple() {
+        var bb = ByteBuffer.allocate(1024);
+        putString(bb, "\u20ACa\u20AC");
+        putString(bb, "hello");
+        var reader = messageReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals("\u20ACa\u20AC:hello", reader.get());
+        assertEquals(0, bb.position());
+    }
+
+    @Test
+    public void reset() {
+        var bb = ByteBuffer.allocate(1024);
+        putString(bb, "a");
+        putString(bb, "b");
+        putString(bb, "c");
+        putString(bb, "d");
+        bb.flip();
+        var reader = messageReader();
+        assertEquals(Reader.ProcessStatus.DONE, reader.processReadMode(bb));
+        assertEquals("a:b", reader.get());
+        reader.reset();
+        assertEquals(Reader.ProcessStatus.DONE, reader.processReadMode(bb));
+        assertEquals("c:d", reader.get());
+        assertEquals(0, bb.remaining());
+    }
+
+    @Test
+    public void oneByteAtATime() {
+        var reader = Readers.sequence(Readers.intReader(),
+                Readers.repeat(3, Readers.map(Readers.longReader(), value -> -value)),
+                (size, values) -> size + " " + values);
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt(3).putLong(1).putLong(2).putLong(3).flip();
+        while (bb.remaining() > 1) {
+            assertEquals(Reader.ProcessStatus.REFILL, reader.processReadMode(bb.slice(bb.position(), 1)));
+            bb.get();
+        }
+        assertEquals(Reader.ProcessStatus.DONE, reader.processReadMode(bb));
+        assertEquals("3 [-1, -2, -3]", reader.get());
+    }
+
+    @Test
+    public void nestedRepeat() {
+        var reader = Readers.repeat(2, Readers.repeat(2, messageReader()));
+        var bb = ByteBuffer.allocate(1024);
+        for (var i = 0; i < 4; i++) {
+            putString(bb, "login" + i);
+            putString(bb, "text" + i);
+        }
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(List.of(List.of("login0:text0", "login1:text1"), List.of("login2:text2", "login3:text3")),
+                reader.get());
+    }
+
+    @Test
+    public void emptyRepeat() {
+        var reader = Readers.sequence(Readers.repeat(0, Readers.intReader()), Readers.intReader(), (list, value) -> list.size());
+        var bb = ByteBuffer.allocate(1024);
+        bb.putInt(42);
+        assertEquals(Reader.ProcessStatus.DONE, reader.process(bb));
+        assertEquals(0, reader.get());
+        assertEquals(0, bb.position());
+    }
+
+    @Test
+    public void errorGet() {
+        var reader = messageReader();
+        assertThrows(IllegalStateException.class, reader::get);
+    }
+
+    @Test
+    public void errorTooBig() {
+        var reader = Readers.sequence(Readers.string(1_024), Readers.string(4), (login, text) -> text);
+        var bb = ByteBuffer.allocate(1024);
+        putString(bb, "login");
+        putString(bb, "hello");
+        assertEquals(Reader.ProcessStatus.ERROR, reader.process(bb));
+        assertThrows(IllegalStateException.class, () -> reader.process(bb));
+    }
+}
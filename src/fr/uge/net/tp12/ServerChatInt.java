@@ -5,15 +5,17 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.ArrayDeque;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ServerChatInt {
     private static final int BUFFER_SIZE = 1_024;
+    private static final int BUFFERS_PER_SLAB = 1_024;
     private static final Logger logger = Logger.getLogger(ServerChatInt.class.getName());
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+
     public ServerChatInt(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress(port));
@@ -66,7 +68,7 @@ public class ServerChatInt {
             }
         } catch (IOException e) {
             logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            ((Context) key.attachment()).silentlyClose();
         }
     }
 
@@ -81,26 +83,20 @@ public class ServerChatInt {
         selectionKey.attach(new Context(this, selectionKey));
     }
 
-    private void silentlyClose(SelectionKey key) {
-        Channel sc = key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
-        }
-    }
-
     /**
      * Add a text to all connected clients queue
      *
      * @param msg - text to add to all connected clients queue
      */
-    private void broadcast(Integer msg) {
+    private void broadcast(int msg) {
         for (SelectionKey key : selector.keys()) {
             if (key.channel() == serverSocketChannel) {
                 continue;
             }
             Context context = (Context) key.attachment(); // Safe Cast
+            if (!key.isValid() || context.released) {
+                continue; // closed in this select, its buffers may already belong to another client
+            }
             context.queueMessage(msg);
         }
     }
@@ -108,17 +104,20 @@ public class ServerChatInt {
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        private final ByteBuffer bufferIn;
+        private final ByteBuffer bufferOut;
+        private final IntQueue queue = new IntQueue(16); // no boxing, see IntQueue
         private final ServerChatInt server; // we could also have Context as an instance class, which would naturally
         // give access to ServerChatInt.this
         private boolean closed = false;
+        private boolean released = false;
 
         private Context(ServerChatInt server, SelectionKey key) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
             this.server = server;
+            this.bufferIn = server.bufferPool.acquire(this);
+            this.bufferOut = server.bufferPool.acquire(this);
         }
 
         /**
@@ -141,7 +140,10 @@ public class ServerChatInt {
          *
          * @param msg - text to add to the text queue
          */
-        public void queueMessage(Integer msg) {
+        public void queueMessage(int msg) {
+            if (released) {
+                return;
+            }
             queue.addLast(msg);
             processOut();
             updateInterestOps();
@@ -167,6 +169,9 @@ public class ServerChatInt {
 
         private void updateInterestOps() {
             var interestOps = 0;
+            if (!key.isValid()) {
+                return;
+            }
             if (!closed && bufferIn.hasRemaining()) {
                 interestOps |= SelectionKey.OP_READ;
             }
@@ -186,6 +191,11 @@ public class ServerChatInt {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (!released) {
+                released = true;
+                server.bufferPool.release(bufferIn);
+                server.bufferPool.release(bufferOut);
+            }
         }
 
         /**
@@ -5,193 +5,772 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ServerChaton {
-    private static final int BUFFER_SIZE = 1_024;
+    /**
+     * Default maximum size in bytes of the text of a message, the clients must not send bigger ones
+     */
+    public static final int DEFAULT_MAX_TEXT_SIZE = 4 * 1_024 * 1_024;
+    private static final int BUFFER_SIZE = 1_024; // also the maximum size of a login
+    private static final int BUFFERS_PER_SLAB = 1_024;
+    private static final int LARGE_BUFFER_SIZE = 16 * 1_024; // for the clients that keep filling the small buffer
+    private static final int LARGE_BUFFERS_PER_SLAB = 64;
+    private static final long IDLE_BUFFER = TimeUnit.SECONDS.toNanos(1); // an idle client gives its buffers back after
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100); // precision of IDLE_BUFFER
+    private static final int NB_SLOTS = 16; // a turn of the wheel is longer than IDLE_BUFFER
+    private static final int MAX_GATHER = 64; // max number of frames sent by one write
+    private static final int SEGMENT_SIZE = 64 * 1_024 * 1_024; // size of the files of the chat log
+    private static final int MAX_SEGMENTS = 16; // files of the chat log kept, 1 GiB
+    private static final int MAX_LOGGED_ROOMS = 4_096; // rooms whose history is indexed
+    private static final long MAX_UNLOGGED_BYTES = 64 * 1_024 * 1_024; // waiting for the log thread, the next frames are not logged
+    private static final int MIN_DEFLATE_SIZE = 64; // smaller chat frames are sent as is
+    private static final ByteBuffer DEFLATE_ACK =
+            ChatProtocol.controlFrame(ChatProtocol.DEFLATE, ByteBuffer.allocate(0)).asReadOnlyBuffer();
     private static final Logger logger = Logger.getLogger(ServerChaton.class.getName());
     private final ServerSocketChannel serverSocketChannel;
-    private final Selector selector;
+    private final Reactor[] reactors;
+    private final OutboundLimits limits;
+    private final int maxTextSize; // of a chat frame, a client sending a bigger text is disconnected
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB); // shared by all the reactors
+    private final BufferPool largeBufferPool = new BufferPool(LARGE_BUFFER_SIZE, LARGE_BUFFERS_PER_SLAB);
+    private final ChatLog chatLog; // null if the frames are not logged
+    private final BlockingQueue<RoomFrame> unloggedFrames = new LinkedBlockingQueue<>(); // appended by logThread
+    private final AtomicLong unloggedBytes = new AtomicLong(); // of unloggedFrames
+    private final Thread logThread; // null if the frames are not logged
+    private final AtomicInteger deflatingClients = new AtomicInteger(); // clients that negotiated compression
+    private int nextReactor = 0; // only used by the acceptor, i.e. the thread of reactors[0]
 
     public ServerChaton(int port) throws IOException {
+        this(port, 1, DEFAULT_MAX_TEXT_SIZE, OutboundLimits.DEFAULT, null);
+    }
+
+    /**
+     * Creates a server running nbReactors selector threads. The first reactor also accepts
+     * the new clients and hands them out to all the reactors in a round-robin fashion.
+     *
+     * @param port        - listening port
+     * @param nbReactors  - number of selector threads, usually the number of cores
+     * @param maxTextSize - maximum size in bytes of the text of a message, a client sending a
+     *                    bigger one is disconnected
+     * @param limits      - bounds on the bytes waiting to be sent to the clients, a frame of
+     *                    maxTextSize must fit under the high watermark
+     * @param chatLog     - log of the frames, replayed on demand to the clients, or null
+     * @throws IOException - if some I/O error occurs
+     */
+    public ServerChaton(int port, int nbReactors, int maxTextSize, OutboundLimits limits, ChatLog chatLog)
+            throws IOException {
+        if (nbReactors < 1) {
+            throw new IllegalArgumentException("At least one reactor is needed");
+        }
+        if (maxTextSize < 0) {
+            throw new IllegalArgumentException("maxTextSize must be positive");
+        }
+        limits.checkMaxFrameSize(maxFrameSize(maxTextSize));
+        this.limits = limits;
+        this.maxTextSize = maxTextSize;
+        this.chatLog = chatLog;
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress(port));
-        selector = Selector.open();
+        reactors = new Reactor[nbReactors];
+        for (int i = 0; i < nbReactors; i++) {
+            reactors[i] = new Reactor();
+        }
+        if (chatLog != null) {
+            logThread = new Thread(this::logFrames);
+            logThread.setName("Chat log");
+        } else {
+            logThread = null;
+        }
     }
 
     public static void main(String[] args) throws NumberFormatException, IOException {
-        if (args.length != 1) {
+        if (args.length < 1 || args.length > 4) {
             usage();
             return;
         }
-        new ServerChaton(Integer.parseInt(args[0])).launch();
+        var nbReactors = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+        var limits = OutboundLimits.DEFAULT;
+        if (args.length >= 3) {
+            limits = limits.withPolicy(OverflowPolicy.valueOf(args[2]));
+        }
+        var chatLog = args.length == 4 ? new ChatLog(Path.of(args[3]), SEGMENT_SIZE, MAX_SEGMENTS, MAX_LOGGED_ROOMS) : null;
+        new ServerChaton(Integer.parseInt(args[0]), nbReactors, DEFAULT_MAX_TEXT_SIZE, limits, chatLog).launch();
+    }
+
+    /**
+     * Return the size of the biggest chat frame, a login of BUFFER_SIZE and a text of maxTextSize
+     */
+    private static long maxFrameSize(int maxTextSize) {
+        return 2L * Integer.BYTES + BUFFER_SIZE + maxTextSize;
     }
 
     private static void usage() {
-        System.out.println("Usage : ServerChaton port");
+        System.out.println("Usage : ServerChaton port [nbReactors [DROP_OLDEST|DROP_NEWEST|DISCONNECT [logDirectory]]]");
+    }
+
+    /**
+     * What to do with a client whose queue reaches the high watermark
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest frames not yet sent until the queue is back to the low watermark
+         */
+        DROP_OLDEST,
+        /**
+         * Drop the new frames until the queue is back to the low watermark
+         */
+        DROP_NEWEST,
+        /**
+         * Close the connection with the client
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Bounds on the bytes queued for the clients.
+     *
+     * @param lowWatermark    - bytes queued for one client under which it is no longer considered as slow
+     * @param highWatermark   - bytes queued for one client from which the policy is applied
+     * @param policy          - what to do with a slow client
+     * @param maxPendingBytes - bytes queued for all the clients from which new frames are only queued
+     *                        for the clients that are up-to-date
+     */
+    public record OutboundLimits(int lowWatermark, int highWatermark, OverflowPolicy policy, long maxPendingBytes) {
+        public static final OutboundLimits DEFAULT =
+                new OutboundLimits(16 * 1_024, 8 * 1_024 * 1_024, OverflowPolicy.DROP_OLDEST, 256L * 1_024 * 1_024);
+
+        public OutboundLimits {
+            Objects.requireNonNull(policy);
+            if (lowWatermark < 0 || highWatermark < lowWatermark || maxPendingBytes < highWatermark) {
+                throw new IllegalArgumentException("Expected 0 <= lowWatermark <= highWatermark <= maxPendingBytes");
+            }
+        }
+
+        public OutboundLimits withPolicy(OverflowPolicy policy) {
+            return new OutboundLimits(lowWatermark, highWatermark, policy, maxPendingBytes);
+        }
+
+        /**
+         * Check that the biggest frame can be queued for a client that is up-to-date, otherwise
+         * such a frame alone would make the client slow and it would never be sent
+         *
+         * @param maxFrameSize - size in bytes of the biggest frame
+         */
+        public void checkMaxFrameSize(long maxFrameSize) {
+            if (maxFrameSize > highWatermark) {
+                throw new IllegalArgumentException("Frames of " + maxFrameSize
+                        + " bytes do not fit under the high watermark of " + highWatermark + " bytes");
+            }
+        }
     }
 
     public void launch() throws IOException {
         serverSocketChannel.configureBlocking(false);
-        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-        while (!Thread.interrupted()) {
-            Helpers.printKeys(selector); // for debug
-            System.out.println("Starting select");
-            try {
-                selector.select(this::treatKey);
-            } catch (UncheckedIOException tunneled) {
-                throw tunneled.getCause();
+        serverSocketChannel.register(reactors[0].selector, SelectionKey.OP_ACCEPT);
+        for (int i = 1; i < reactors.length; i++) {
+            var reactor = reactors[i];
+            var thread = new Thread(() -> {
+                try {
+                    reactor.launch();
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Reactor stopped due to IOException", e);
+                }
+            });
+            thread.setName("Reactor " + i);
+            reactor.thread = thread;
+            thread.start();
+        }
+        if (logThread != null) {
+            logThread.start();
+        }
+        reactors[0].thread = Thread.currentThread();
+        try {
+            reactors[0].launch();
+        } finally {
+            for (int i = 1; i < reactors.length; i++) {
+                reactors[i].thread.interrupt();
+                reactors[i].selector.wakeup();
+            }
+            if (logThread != null) {
+                stopLogThread();
             }
-            System.out.println("Select finished");
         }
     }
 
-    private void treatKey(SelectionKey key) {
-        Helpers.printSelectedKey(key); // for debug
+    /**
+     * Append the frames broadcast by the reactors to the chat log, so the reactors never wait
+     * for the log, nor for the files it creates and deletes
+     */
+    private void logFrames() {
         try {
-            if (key.isValid() && key.isAcceptable()) {
-                doAccept(key);
+            for (; ; ) {
+                var roomFrame = unloggedFrames.take();
+                unloggedBytes.addAndGet(-roomFrame.frame().remaining());
+                try {
+                    chatLog.append(roomFrame.room(), roomFrame.frame());
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.log(Level.WARNING, "Frame not logged", e);
+                }
             }
-        } catch (IOException ioe) {
-            // lambda call in select requires to tunnel IOException
-            throw new UncheckedIOException(ioe);
+        } catch (InterruptedException e) {
+            logger.info("Chat log thread stopped, " + unloggedFrames.size() + " frames not logged");
         }
+    }
+
+    /**
+     * Queue a frame for the log thread, unless too many bytes are already waiting: the frame is
+     * then not logged rather than making the memory grow. Can be called from any thread.
+     */
+    private void log(RoomFrame roomFrame) {
+        var size = roomFrame.frame().remaining();
+        if (unloggedBytes.addAndGet(size) > MAX_UNLOGGED_BYTES) {
+            unloggedBytes.addAndGet(-size);
+            logger.fine("Chat log lagging, frame not logged");
+            return;
+        }
+        unloggedFrames.offer(roomFrame);
+    }
+
+    private void stopLogThread() throws IOException {
+        logThread.interrupt();
         try {
-            if (key.isValid() && key.isWritable()) {
-                ((Context) key.attachment()).doWrite();
-            }
-            if (key.isValid() && key.isReadable()) {
-                ((Context) key.attachment()).doRead();
-            }
-        } catch (IOException e) {
-            logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            logThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return; // the log thread may still be appending, the files are closed when the JVM exits
         }
+        chatLog.close();
     }
 
-    private void doAccept(SelectionKey key) throws IOException {
+    private void doAccept() throws IOException {
         var sc = serverSocketChannel.accept();
         if (sc == null) {
             logger.info("Selector lied, no accept");
             return;
         }
         sc.configureBlocking(false);
-        var selectionKey = sc.register(selector, SelectionKey.OP_READ);
-        selectionKey.attach(new Context(this, selectionKey));
+        var reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+        reactor.submitChannel(sc);
     }
 
-    private void silentlyClose(SelectionKey key) {
-        Channel sc = key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
+    /**
+     * A frame sent to a room, as posted to the other reactors and to the log thread
+     *
+     * @param deflated - the frame as a DEFLATED frame, or null if it is sent as is to every client
+     */
+    private record RoomFrame(String room, ByteBuffer frame, ByteBuffer deflated) {
+    }
+
+    /**
+     * The clients of one reactor that are in the same room. The members are kept in an array,
+     * a broadcast only walks the members of the room.
+     */
+    static private class Room {
+        private final String name;
+        private Context[] members = new Context[8];
+        private int size;
+
+        private Room(String name) {
+            this.name = name;
+        }
+
+        private void add(Context context) {
+            if (size == members.length) {
+                members = Arrays.copyOf(members, size * 2);
+            }
+            context.room = this;
+            context.indexInRoom = size;
+            members[size++] = context;
+        }
+
+        /**
+         * Remove a member by moving the last member in its slot, so walking the members from
+         * the last to the first is not disturbed if the current member leaves the room.
+         */
+        private void remove(Context context) {
+            var last = members[--size];
+            members[context.indexInRoom] = last;
+            last.indexInRoom = context.indexInRoom;
+            members[size] = null;
+            context.room = null;
         }
     }
 
     /**
-     * Add a text to all connected clients queue
-     *
-     * @param msg - text to add to all connected clients queue
+     * A selector thread with its own set of clients. The other threads never touch the
+     * selector nor the contexts of a reactor, they post into its inboxes and wake it up.
      */
-    private void broadcast(Message msg) {
-        Objects.requireNonNull(msg);
-        for (SelectionKey key : selector.keys()) {
-            if (key.channel() == serverSocketChannel) {
-                continue;
+    private class Reactor {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<RoomFrame> pendingFrames = new ConcurrentLinkedQueue<>();
+        private final HashMap<String, Room> rooms = new HashMap<>();
+        private final ArrayList<Context> dirtyContexts = new ArrayList<>(); // got frames during this round
+        private final AtomicBoolean wakeupPending = new AtomicBoolean();
+        private final FrameDeflater frameDeflater = new FrameDeflater(MIN_DEFLATE_SIZE);
+        private final TimingWheel timingWheel = new TimingWheel(TICK, NB_SLOTS, System.nanoTime()); // of the idle buffers
+        private long pendingBytes; // bytes queued for the clients of this reactor
+        private volatile long publishedPendingBytes; // pendingBytes as seen by the other reactors
+        private Thread thread;
+
+        private Reactor() throws IOException {
+            selector = Selector.open();
+        }
+
+        private void launch() throws IOException {
+            while (!Thread.interrupted()) {
+                try {
+                    selector.select(this::treatKey, timingWheel.millisToNextTick(System.nanoTime()));
+                } catch (UncheckedIOException tunneled) {
+                    throw tunneled.getCause();
+                }
+                // reset before draining so that a post made during the drain wakes us up again
+                wakeupPending.set(false);
+                processInboxes();
+                flushDirtyContexts();
+                publishedPendingBytes = pendingBytes;
+                // only the clients idle for IDLE_BUFFER are visited, not all the clients
+                timingWheel.expire(System.nanoTime());
+            }
+        }
+
+        /**
+         * Flush once, at the end of the select round, every client that got frames during the
+         * round, so many broadcasts cost one write and one interestOps update per client.
+         */
+        private void flushDirtyContexts() {
+            for (var context : dirtyContexts) {
+                context.flush();
+            }
+            dirtyContexts.clear();
+        }
+
+        /**
+         * Wake up the selector unless a wake up is already pending
+         */
+        private void wakeup() {
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Hands a freshly accepted client over to this reactor. Can be called from any thread.
+         *
+         * @param sc - a non-blocking socket channel
+         */
+        private void submitChannel(SocketChannel sc) throws IOException {
+            if (Thread.currentThread() == thread) {
+                register(sc);
+                return;
+            }
+            pendingChannels.offer(sc);
+            wakeup();
+        }
+
+        /**
+         * Posts a frame coming from another reactor. Can be called from any thread.
+         *
+         * @param roomFrame - read-only frame to broadcast to the clients of this reactor in the room
+         */
+        private void submitFrame(RoomFrame roomFrame) {
+            pendingFrames.offer(roomFrame);
+            wakeup();
+        }
+
+        private void processInboxes() throws IOException {
+            SocketChannel sc;
+            while ((sc = pendingChannels.poll()) != null) {
+                register(sc);
+            }
+            RoomFrame roomFrame;
+            while ((roomFrame = pendingFrames.poll()) != null) {
+                var room = rooms.get(roomFrame.room());
+                if (room != null) {
+                    localBroadcast(room, roomFrame.frame(), roomFrame.deflated());
+                }
+            }
+        }
+
+        private void register(SocketChannel sc) throws IOException {
+            var selectionKey = sc.register(selector, SelectionKey.OP_READ);
+            var context = new Context(this, selectionKey, limits, maxTextSize, bufferPool, largeBufferPool);
+            selectionKey.attach(context);
+            join(context, "");
+        }
+
+        /**
+         * Send to a client the last frames of its room, straight from the chat log. A request
+         * made while the previous replay is not sent yet is ignored, so a client that does not
+         * read cannot make its replay grow without bound.
+         *
+         * @param context - client of this reactor
+         * @param count   - number of frames asked by the client
+         */
+        private void sendHistory(Context context, int count) {
+            if (chatLog == null) {
+                logger.info("History asked but the frames are not logged");
+                return;
+            }
+            if (!context.replay.isEmpty()) {
+                logger.info("History asked during a replay, request ignored");
+                return;
+            }
+            context.queueReplay(chatLog.lastFrames(context.room.name, count));
+        }
+
+        /**
+         * Move a client of this reactor to another room
+         *
+         * @param context  - client of this reactor
+         * @param roomName - room to join
+         */
+        private void join(Context context, String roomName) {
+            leave(context);
+            rooms.computeIfAbsent(roomName, Room::new).add(context);
+        }
+
+        /**
+         * Remove a client of this reactor from its room, if any
+         *
+         * @param context - client of this reactor
+         */
+        private void leave(Context context) {
+            var room = context.room;
+            if (room == null) {
+                return;
+            }
+            room.remove(context);
+            if (room.size == 0) {
+                rooms.remove(room.name);
+            }
+        }
+
+        private void treatKey(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isAcceptable()) {
+                    doAccept();
+                }
+            } catch (IOException ioe) {
+                // lambda call in select requires to tunnel IOException
+                throw new UncheckedIOException(ioe);
+            }
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    ((Context) key.attachment()).doWrite();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    ((Context) key.attachment()).doRead();
+                }
+            } catch (IOException e) {
+                logger.log(Level.INFO, "Connection closed with client due to IOException", e);
+                ((Context) key.attachment()).silentlyClose();
+            }
+        }
+
+        /**
+         * Count the clients of this reactor that start or stop to negotiate compression, the
+         * frames are only compressed if there is at least one such client on any reactor
+         */
+        private void countDeflatingClients(int delta) {
+            deflatingClients.addAndGet(delta);
+        }
+
+        /**
+         * Return an estimation of the bytes queued for the clients of all the reactors. Only
+         * the count of this reactor is exact, the others are the last published values.
+         */
+        private long globalPendingBytes() {
+            var total = pendingBytes;
+            for (var reactor : reactors) {
+                if (reactor != this) {
+                    total += reactor.publishedPendingBytes;
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Add a frame to the queue of all the clients in a room, on every reactor. The frame is
+         * compressed once here for all the clients that negotiated compression.
+         *
+         * @param room     - room of this reactor the frame is sent to
+         * @param frame    - read-only chat frame, in read-mode, to add to the clients queue
+         * @param deflated - read-only DEFLATED frame of frame if the sender already compressed it, or null
+         */
+        private void broadcast(Room room, ByteBuffer frame, ByteBuffer deflated) {
+            Objects.requireNonNull(frame);
+            if (deflated == null && deflatingClients.get() > 0) {
+                deflated = frameDeflater.deflate(frame);
+            }
+            if (chatLog != null || reactors.length > 1) {
+                var roomFrame = new RoomFrame(room.name, frame, deflated);
+                if (chatLog != null) {
+                    log(roomFrame);
+                }
+                for (var reactor : reactors) {
+                    if (reactor != this) {
+                        reactor.submitFrame(roomFrame);
+                    }
+                }
+            }
+            localBroadcast(room, frame, deflated);
+        }
+
+        /**
+         * Add a frame to the queue of the clients of this reactor in a room. The frame is shared,
+         * each client only gets its own view of it.
+         *
+         * @param room     - room of this reactor the frame is sent to
+         * @param frame    - read-only frame, in read-mode, to add to the clients queue
+         * @param deflated - read-only DEFLATED frame of frame, sent instead of frame to the clients
+         *                 that negotiated compression, or null
+         */
+        private void localBroadcast(Room room, ByteBuffer frame, ByteBuffer deflated) {
+            var overloaded = globalPendingBytes() >= limits.maxPendingBytes();
+            // backward, a client closed by queueFrame is replaced by a member already visited
+            for (int i = room.size - 1; i >= 0; i--) {
+                var context = room.members[i];
+                if (overloaded && context.queuedBytes != 0) {
+                    context.dropped++;
+                    continue;
+                }
+                context.queueFrame((context.deflate && deflated != null ? deflated : frame).duplicate());
             }
-            Context context = (Context) key.attachment(); // Safe Cast
-            context.queueMessage(new Message(msg));
         }
     }
 
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ArrayDeque<Message> queue = new ArrayDeque<>();
-        private final ServerChaton server; // we could also have Context as an instance class, which would naturally
-        private final MessageReader messageReader = new MessageReader();
-        // give access to ServerChatInt.this
+        private final AdaptiveBuffer bufferIn; // only held while the client sends, see releaseIfIdle
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>(); // frames in read-mode
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private final ArrayDeque<ChatLog.Region> replay = new ArrayDeque<>(); // history sent from the chat log
+        private final Reactor reactor; // the reactor owning the key, broadcast goes through it
+        private final FrameReader frameReader;
+        private final int maxFrameSize; // of a chat frame, as accepted by frameReader
+        private final OutboundLimits limits;
+        private final TimingWheel.Timeout idleBufferTimeout = new TimingWheel.Timeout(this::releaseIfIdle);
         private boolean closed = false;
+        private boolean released = false;
+        private long queuedBytes; // bytes of the queue not sent yet
+        private boolean slow; // true from the high watermark until the queue drains to the low watermark
+        private long dropped; // frames never sent to this client
+        private boolean dirty; // true if in the dirty contexts of the reactor
+        private boolean deflate; // true if the client negotiated compression
+        private Room room; // managed by Room
+        private int indexInRoom; // managed by Room
 
-        private Context(ServerChaton server, SelectionKey key) {
+        private Context(Reactor reactor, SelectionKey key, OutboundLimits limits, int maxTextSize,
+                        BufferPool bufferPool, BufferPool largeBufferPool) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
-            this.server = server;
+            this.reactor = reactor;
+            this.limits = limits;
+            this.bufferIn = new AdaptiveBuffer(this, bufferPool, largeBufferPool);
+            this.frameReader = new FrameReader(maxTextSize);
+            this.maxFrameSize = (int) maxFrameSize(maxTextSize);
         }
 
         /**
          * Process the content of bufferIn
          * <p>
          * The convention is that bufferIn is in write-mode before the call to process and
-         * after the call
+         * after the call. All the complete frames are decoded in place between one flip and
+         * one compact, so the cost is linear in the bytes received.
          */
         private void processIn() {
-            for (; ; ) {
-                Reader.ProcessStatus status = messageReader.process(bufferIn);
-                switch (status) {
-                    case DONE:
-                        var message = messageReader.get();
-                        server.broadcast(message);
-                        messageReader.reset();
-                        break;
-                    case REFILL:
+            var buffer = bufferIn.get();
+            buffer.flip();
+            try {
+                for (; ; ) {
+                    Reader.ProcessStatus status = frameReader.processReadMode(buffer);
+                    switch (status) {
+                        case DONE:
+                            var frame = frameReader.get();
+                            frameReader.reset();
+                            if (ChatProtocol.isChat(frame)) {
+                                reactor.broadcast(room, frame, null);
+                            } else {
+                                processControl(frame);
+                            }
+                            if (released) {
+                                return; // closed by its own broadcast
+                            }
+                            break;
+                        case REFILL:
+                            return;
+                        case ERROR:
+                            silentlyClose();
+                            return;
+                    }
+                }
+            } finally {
+                if (!released) { // a released buffer may already belong to another client
+                    buffer.compact();
+                }
+            }
+        }
+
+        /**
+         * Process a control frame sent by the client
+         *
+         * @param frame - control frame, in read-mode
+         */
+        private void processControl(ByteBuffer frame) {
+            switch (ChatProtocol.opcode(frame)) {
+                case ChatProtocol.JOIN -> reactor.join(this, ChatProtocol.decodePayload(frame));
+                case ChatProtocol.HISTORY -> {
+                    var payload = ChatProtocol.payload(frame);
+                    if (payload.remaining() != Integer.BYTES) {
+                        logger.info("Malformed history request, frame ignored");
                         return;
-                    case ERROR:
+                    }
+                    reactor.sendHistory(this, payload.getInt());
+                }
+                case ChatProtocol.DEFLATE -> {
+                    if (!deflate) {
+                        deflate = true;
+                        reactor.countDeflatingClients(1);
+                    }
+                    queueFrame(DEFLATE_ACK.duplicate());
+                }
+                case ChatProtocol.DEFLATED -> {
+                    var chatFrame = reactor.frameDeflater.inflate(frame, maxFrameSize, BUFFER_SIZE);
+                    if (chatFrame == null) {
+                        logger.info("Malformed deflated frame, closing the connection");
                         silentlyClose();
                         return;
+                    }
+                    // the client compressed with the same dictionary, its frame is relayed as is
+                    reactor.broadcast(room, chatFrame, frame);
                 }
+                default -> logger.info("Unknown opcode " + ChatProtocol.opcode(frame) + ", frame ignored");
             }
         }
 
         /**
-         * Add a text to the text queue, tries to fill bufferOut and updateInterestOps
+         * Add a frame to the frame queue, unless the client is too slow in which case the
+         * overflow policy is applied. The frame is sent when the reactor flushes the client,
+         * at the end of the select round
          *
-         * @param msg - text to add to the text queue
+         * @param frame - frame, in read-mode, to add to the frame queue
          */
-        public void queueMessage(Message msg) {
-            queue.addLast(msg);
-            processOut();
-            updateInterestOps();
+        public void queueFrame(ByteBuffer frame) {
+            var size = frame.remaining();
+            if (slow || queuedBytes + size > limits.highWatermark()) {
+                if (!slow) {
+                    slow = true;
+                    logger.info("Client too slow, applying " + limits.policy());
+                }
+                switch (limits.policy()) {
+                    case DROP_NEWEST -> {
+                        dropped++;
+                        return;
+                    }
+                    case DROP_OLDEST -> dropOldest(limits.lowWatermark() - size);
+                    case DISCONNECT -> {
+                        silentlyClose();
+                        return;
+                    }
+                }
+            }
+            queue.addLast(frame);
+            addQueuedBytes(size);
+            markDirty();
         }
 
         /**
-         * Try to fill bufferOut from the text queue
+         * Add frames of the chat log to send. They are sent before the frames of the queue,
+         * except the head if it is partially sent.
+         *
+         * @param regions - frames of the chat log
          */
-        private void processOut() {
-            while (/*bufferOut.remaining() >= Integer.BYTES && */ !queue.isEmpty()) {
-                var message = queue.peekFirst();
-                /*
-                var login = message.login();
-                var text = message.text();
-                var loginBuffer = StandardCharsets.UTF_8.encode(login);
-                var textBuffer = StandardCharsets.UTF_8.encode(text);
-                 */
-
-                message.fillBuffer(bufferOut);
-                if (message.isDone()) {
-                    queue.removeFirst();
-                }
+        private void queueReplay(List<ChatLog.Region> regions) {
+            replay.addAll(regions);
+            markDirty();
+        }
 
+        private void markDirty() {
+            if (!dirty) {
+                dirty = true;
+                reactor.dirtyContexts.add(this);
+            }
+        }
 
-                //bufferOut = message.toBuffer();
+        /**
+         * Send what can be sent of the frames queued during this select round and updateInterestOps.
+         * Called once per round by the reactor.
+         */
+        private void flush() {
+            dirty = false;
+            if (released) {
+                return;
+            }
+            if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                return; // the client is lagging, the selector will tell when it can be written
+            }
+            try {
+                write();
+            } catch (IOException e) {
+                logger.log(Level.INFO, "Connection closed with client due to IOException", e);
+                silentlyClose();
+                return;
+            }
+            updateInterestOps();
+        }
 
-                // check we have the correct remaining to put login and text
-                //bufferOut.putInt(loginBuffer.remaining()).put(loginBuffer);
-                //bufferOut.putInt(textBuffer.remaining()).put(textBuffer);
+        /**
+         * Drop the oldest frames until at most target bytes are queued. The head of the queue
+         * is kept if it was partially sent, the client would not be able to resync otherwise.
+         *
+         * @param target - number of queued bytes to reach
+         */
+        private void dropOldest(long target) {
+            var head = queue.peekFirst();
+            if (head != null && head.position() != 0) {
+                queue.removeFirst();
+            } else {
+                head = null;
             }
+            while (queuedBytes > target && !queue.isEmpty()) {
+                addQueuedBytes(-queue.removeFirst().remaining());
+                dropped++;
+            }
+            if (head != null) {
+                queue.addFirst(head);
+            }
+        }
+
+        private void addQueuedBytes(long delta) {
+            queuedBytes += delta;
+            reactor.pendingBytes += delta;
         }
 
         /**
          * Update the interestOps of the key looking only at values of the boolean
-         * closed and of both ByteBuffers.
+         * closed, of bufferIn, of the frame queue and of the replay.
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn is in write-mode before the call to
          * updateInterestOps and after the call. Also, it is assumed that process has
          * been be called just before updateInterestOps.
          */
@@ -201,10 +780,11 @@ public class ServerChaton {
             if (!key.isValid()) {
                 return;
             }
-            if (!closed && bufferIn.hasRemaining()) {
+            var buffer = bufferIn.peek();
+            if (!closed && (buffer == null || buffer.hasRemaining())) {
                 interestOps |= SelectionKey.OP_READ;
             }
-            if (bufferOut.position() != 0) {
+            if (!queue.isEmpty() || !replay.isEmpty()) {
                 interestOps |= SelectionKey.OP_WRITE;
             }
             if (interestOps == 0) {
@@ -220,40 +800,109 @@ public class ServerChaton {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (released) {
+                return;
+            }
+            released = true;
+            reactor.timingWheel.cancel(idleBufferTimeout);
+            bufferIn.release();
+            if (deflate) {
+                reactor.countDeflatingClients(-1);
+            }
+            reactor.leave(this);
+            // the frames that will never be sent no longer count in the pending bytes
+            reactor.pendingBytes -= queuedBytes;
+            queuedBytes = 0;
+            queue.clear();
+            replay.clear();
         }
 
         /**
          * Performs the read action on sc
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn is in write-mode before the call to
          * doRead and after the call
          *
          * @throws IOException - if some I/O error occurs
          */
         private void doRead() throws IOException {
-            if (-1 == sc.read(bufferIn)) {
+            var buffer = bufferIn.get();
+            var free = buffer.remaining();
+            var read = sc.read(buffer);
+            if (read == -1) {
                 closed = true;
+            } else {
+                bufferIn.afterRead(read, free);
             }
+            reactor.timingWheel.schedule(idleBufferTimeout, System.nanoTime() + IDLE_BUFFER);
             processIn();
             updateInterestOps();
         }
 
+        /**
+         * Give bufferIn back to its pool and drop the buffer of the frame reader, the client
+         * did not send anything for IDLE_BUFFER. A client in the middle of a frame keeps its
+         * buffers until its next read schedules the timeout again.
+         */
+        private void releaseIfIdle() {
+            if (!released && bufferIn.releaseIfEmpty()) {
+                frameReader.trim();
+            }
+        }
+
         /**
          * Performs the write action on sc
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that the frames of the queue are in read-mode before the call to
          * doWrite and after the call
          *
          * @throws IOException - if some I/O error occurs
          */
 
         private void doWrite() throws IOException {
-            bufferOut.flip();
-            sc.write(bufferOut);
-            bufferOut.compact();
-            processOut();
+            write();
             updateInterestOps();
         }
 
+        /**
+         * Sends the replay then the head of the frame queue with one gathering write. A partially
+         * written frame stays at the head of the queue.
+         *
+         * @throws IOException - if some I/O error occurs
+         */
+        private void write() throws IOException {
+            var head = queue.peekFirst();
+            if (!replay.isEmpty() && (head == null || head.position() == 0)) {
+                while (!replay.isEmpty()) {
+                    if (!replay.peekFirst().transferTo(sc)) {
+                        return; // the socket is full
+                    }
+                    replay.removeFirst();
+                }
+            }
+            // only the partially sent head goes before the replay
+            var maxFrames = replay.isEmpty() ? MAX_GATHER : 1;
+            var nbFrames = 0;
+            for (var frame : queue) {
+                if (nbFrames == maxFrames) {
+                    break;
+                }
+                gather[nbFrames++] = frame;
+            }
+            var written = sc.write(gather, 0, nbFrames);
+            for (int i = 0; i < nbFrames; i++) {
+                if (gather[i].hasRemaining()) {
+                    break;
+                }
+                queue.removeFirst();
+            }
+            Arrays.fill(gather, 0, nbFrames, null);
+            addQueuedBytes(-written);
+            if (slow && queuedBytes <= limits.lowWatermark()) {
+                slow = false;
+                logger.info("Client caught up, " + dropped + " frames dropped so far");
+            }
+        }
+
     }
-}
\ No newline at end of file
+}
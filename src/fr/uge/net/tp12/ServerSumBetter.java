@@ -12,13 +12,18 @@ public class ServerSumBetter {
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer bufferIn;
+        private final ByteBuffer bufferOut;
+        private final BufferPool bufferPool;
         private boolean closed = false;
+        private boolean released = false;
 
-        private Context(SelectionKey key) {
+        private Context(SelectionKey key, BufferPool bufferPool) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.bufferPool = bufferPool;
+            this.bufferIn = bufferPool.acquire(this);
+            this.bufferOut = bufferPool.acquire(this);
         }
 
         /**
@@ -67,6 +72,11 @@ public class ServerSumBetter {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (!released) {
+                released = true;
+                bufferPool.release(bufferIn);
+                bufferPool.release(bufferOut);
+            }
         }
 
         /**
@@ -105,10 +115,12 @@ public class ServerSumBetter {
     }
 
     private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFERS_PER_SLAB = 1_024;
     private static final Logger logger = Logger.getLogger(ServerSumBetter.class.getName());
 
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
 
     public ServerSumBetter(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
@@ -150,7 +162,7 @@ public class ServerSumBetter {
             }
         } catch (IOException e) {
             logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            ((Context) key.attachment()).silentlyClose();
         }
     }
 
@@ -162,16 +174,7 @@ public class ServerSumBetter {
         }
         sc.configureBlocking(false);
         var selectionKey = sc.register(selector, SelectionKey.OP_READ);
-        selectionKey.attach(new Context(selectionKey));
-    }
-
-    private void silentlyClose(SelectionKey key) {
-        Channel sc = key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
-        }
+        selectionKey.attach(new Context(selectionKey, bufferPool));
     }
 
     public static void main(String[] args) throws NumberFormatException, IOException {
@@ -0,0 +1,122 @@
+package fr.uge.net.tp12;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bounded cache of decoded strings keyed on their encoded bytes, so that a string received again
+ * and again, like the login of a client, is neither decoded nor allocated again.
+ * <p>
+ * The cache is 2-way set associative: the hash of the bytes gives a pair of slots where they
+ * can be, the most recently used first. A new string goes first and evicts the second one.
+ * A lookup is a hash and at most two comparisons of the bytes. Not thread safe, each reader
+ * has its own cache.
+ */
+public class StringCache {
+    private final byte[][] keys;
+    private final String[] values;
+    private final int mask;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity - number of slots, rounded up to a power of two
+     */
+    public StringCache(int capacity) {
+        if (capacity < 2 || capacity > 1 << 20) {
+            throw new IllegalArgumentException("capacity must be between 2 and 2^20");
+        }
+        var size = Integer.highestOneBit(capacity - 1) << 1;
+        keys = new byte[size][];
+        values = new String[size];
+        mask = size - 2; // index of the first slot of a pair
+    }
+
+    private static int hash(ByteBuffer bytes) {
+        var hash = 1;
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            hash = 31 * hash + bytes.get(i);
+        }
+        hash *= 0x9E3779B9; // spreads the hashes of similar strings like login1, login2...
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Compare the key of slot with the remaining bytes in place, with absolute gets,
+     * so a lookup allocates nothing
+     */
+    private boolean matches(int slot, ByteBuffer bytes) {
+        var key = keys[slot];
+        if (key == null || key.length != bytes.remaining()) {
+            return false;
+        }
+        var position = bytes.position();
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != bytes.get(position + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void swap(int slot) {
+        var key = keys[slot];
+        keys[slot] = keys[slot + 1];
+        keys[slot + 1] = key;
+        var value = values[slot];
+        values[slot] = values[slot + 1];
+        values[slot + 1] = value;
+    }
+
+    /**
+     * Return the string cached for the remaining bytes, or null. The buffer is left untouched.
+     */
+    public String get(ByteBuffer bytes) {
+        var slot = hash(bytes) & mask;
+        if (matches(slot, bytes)) {
+            hits++;
+            return values[slot];
+        }
+        if (matches(slot + 1, bytes)) {
+            hits++;
+            swap(slot);
+            return values[slot];
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Cache value for the remaining bytes, evicting the least recently used string of its pair
+     * of slots. The buffer is left untouched.
+     */
+    public void put(ByteBuffer bytes, String value) {
+        var slot = hash(bytes) & mask;
+        swap(slot);
+        var key = new byte[bytes.remaining()];
+        bytes.get(bytes.position(), key);
+        keys[slot] = key;
+        values[slot] = value;
+    }
+
+    /**
+     * Count a string that was decoded without looking in the cache
+     */
+    public void miss() {
+        misses++;
+    }
+
+    public long hits() {
+        return hits;
+    }
+
+    public long misses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        var total = hits + misses;
+        return "StringCache: " + hits + " hits, " + misses + " misses"
+                + (total == 0 ? "" : String.format(" (%.1f%% hits)", 100.0 * hits / total));
+    }
+}
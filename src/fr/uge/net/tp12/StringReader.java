@@ -1,40 +1,84 @@
 package fr.uge.net.tp12;
 
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * Reads a string encoded in UTF-8 prefixed by its size in bytes.
+ * <p>
+ * When the whole string is in the buffer, it is decoded straight from the buffer. Otherwise,
+ * the bytes are fed to an incremental decoder as they arrive, the bytes of a character split
+ * between two refills being kept aside until the character is complete.
+ * <p>
+ * Strings up to BUFFER_SIZE bytes are decoded in a preallocated buffer. Bigger strings, up to
+ * the maximum given to the constructor, are decoded in a buffer that grows with the bytes
+ * received and is dropped by reset, so their memory is only held while they are read.
+ * <p>
+ * With a StringCache, a string entirely in the buffer is first looked up by its bytes, so a
+ * string read again and again is decoded once.
+ */
 public class StringReader implements Reader<String> {
 
     private static final int BUFFER_SIZE = 1_024;
     private static final Charset UTF8 = StandardCharsets.UTF_8;
-    private final ByteBuffer internalBuffer = ByteBuffer.allocate(BUFFER_SIZE); // write-mode
+    private final CharsetDecoder decoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer smallChars = CharBuffer.allocate(BUFFER_SIZE); // a UTF-8 byte gives at most one char
+    private final int maxSize;
+    private final StringCache cache; // null if the strings are not cached
+    private CharBuffer chars = smallChars;
+    private final ByteBuffer carry = ByteBuffer.allocate(4); // write-mode, start of a split character
     private final IntReader intReader = new IntReader();
     private State state = State.WAITING_LENGTH;
     private int size;
+    private int missing; // bytes of the string not received yet
     private String value;
 
-    private void fillInternalBufferFromBuffer(ByteBuffer buffer) {
-        if (internalBuffer.position() >= size) {
-            return;
+    public StringReader() {
+        this(BUFFER_SIZE);
+    }
+
+    /**
+     * @param maxSize - maximum size in bytes of the strings, a bigger size is an error
+     */
+    public StringReader(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param maxSize - maximum size in bytes of the strings, a bigger size is an error
+     * @param cache   - cache of the strings already read, or null
+     */
+    public StringReader(int maxSize, StringCache cache) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
         }
-        buffer.flip(); //was in WRITE, needs to be READ.
-        var oldLimit = buffer.limit();
-        var toBeRead = Math.min(size - internalBuffer.position(), buffer.remaining());
-        var limitNew = Math.min(internalBuffer.remaining(), toBeRead);
-        buffer.limit(limitNew); // setting limit to max byte available to send/be put in buffer
-        internalBuffer.put(buffer);
-        buffer.limit(oldLimit);
-        buffer.compact(); // removing from buffer all that was read + putting it back to WRITE mode.
+        this.maxSize = maxSize;
+        this.cache = cache;
     }
 
     @Override
     public ProcessStatus process(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            return processReadMode(buffer);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    @Override
+    public ProcessStatus processReadMode(ByteBuffer buffer) {
         if (state == State.DONE || state == State.ERROR) {
             throw new IllegalStateException();
         }
         if (state == State.WAITING_LENGTH) {
-            switch (intReader.process(buffer)) {
+            switch (intReader.processReadMode(buffer)) {
                 case REFILL -> {
                     return ProcessStatus.REFILL;
                 }
@@ -44,25 +88,90 @@ public class StringReader implements Reader<String> {
                 }
                 case DONE -> {
                     size = intReader.get();
-                    if (size < 0 || size > BUFFER_SIZE) {
+                    if (size < 0 || size > maxSize) {
                         state = State.ERROR;
                         return ProcessStatus.ERROR;
                     }
+                    missing = size;
                     state = State.WAITING_TEXT;
+                    decoder.reset();
+                    chars.clear();
+                    if (cache != null) {
+                        if (buffer.remaining() >= size) {
+                            return processCached(buffer);
+                        }
+                        cache.miss(); // split by a refill, decoded without the cache
+                    }
                     // Don't return, buffer isn't necessarily empty
                 }
             }
         }
-        fillInternalBufferFromBuffer(buffer);
-        if (internalBuffer.position() < size) {
+        var chunk = buffer.slice(buffer.position(), Math.min(missing, buffer.remaining()));
+        buffer.position(buffer.position() + chunk.remaining());
+        missing -= chunk.remaining();
+        ensureCapacity(size - missing);
+        if (carry.position() > 0) {
+            completeSplitCharacter(chunk);
+        }
+        decoder.decode(chunk, chars, missing == 0);
+        carry.put(chunk); // at most the 3 first bytes of a character
+        if (missing > 0) {
             return ProcessStatus.REFILL;
         }
+        if (carry.position() > 0) { // truncated character, it is replaced like malformed input
+            carry.flip();
+            decoder.decode(carry, chars, true);
+            carry.clear();
+        }
+        decoder.flush(chars);
+        value = chars.flip().toString();
         state = State.DONE;
-        internalBuffer.flip();
-        value = UTF8.decode(internalBuffer).toString();
         return ProcessStatus.DONE;
     }
 
+    /**
+     * Take the string from the cache, or decode it and cache it. The whole string is in buffer.
+     */
+    private ProcessStatus processCached(ByteBuffer buffer) {
+        var bytes = buffer.slice(buffer.position(), size);
+        var string = cache.get(bytes);
+        if (string == null) {
+            ensureCapacity(size);
+            decoder.decode(bytes.duplicate(), chars, true);
+            decoder.flush(chars);
+            string = chars.flip().toString();
+            cache.put(bytes, string);
+        }
+        buffer.position(buffer.position() + size);
+        missing = 0;
+        value = string;
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    /**
+     * Grow chars so that it can hold the characters decoded from the bytes received, as a UTF-8
+     * byte gives at most one char
+     */
+    private void ensureCapacity(int received) {
+        if (chars.capacity() >= received) {
+            return;
+        }
+        var capacity = Math.min(Math.max(2 * chars.capacity(), received), size);
+        chars = CharBuffer.allocate(capacity).put(chars.flip());
+    }
+
+    /**
+     * Add the bytes of chunk to carry one by one until the character it holds can be decoded
+     */
+    private void completeSplitCharacter(ByteBuffer chunk) {
+        while (carry.position() > 0 && chunk.hasRemaining()) {
+            carry.put(chunk.get()).flip();
+            decoder.decode(carry, chars, false);
+            carry.compact();
+        }
+    }
+
     @Override
     public String get() {
         if (state != State.DONE) {
@@ -74,10 +183,12 @@ public class StringReader implements Reader<String> {
     @Override
     public void reset() {
         size = 0;
+        missing = 0;
         value = null;
         intReader.reset();
         state = State.WAITING_LENGTH;
-        internalBuffer.clear();
+        carry.clear();
+        chars = smallChars;
     }
 
     private enum State {
@@ -6,6 +6,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class StringReaderTest {
@@ -90,4 +91,77 @@ public class StringReaderTest {
         bb.putInt(1025).put(bytes);
         assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readMode() {
+        var string = "\u20ACa\u20AC";
+        var bb = ByteBuffer.allocate(1024);
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        bb.putInt(bytes.remaining()).put(bytes).putInt(42).flip();
+        var sr = new StringReader();
+        assertEquals(Reader.ProcessStatus.DONE, sr.processReadMode(bb));
+        assertEquals(string, sr.get());
+        assertEquals(11, bb.position());
+        assertEquals(42, bb.getInt());
+    }
+
+    @Test
+    public void oneByteAtATime() {
+        var string = "a\u20AC\uD83D\uDE00b"; // characters of 1, 3 and 4 bytes
+        var bb = ByteBuffer.allocate(1024);
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        bb.putInt(bytes.remaining()).put(bytes).flip();
+        var sr = new StringReader();
+        while (bb.remaining() > 1) {
+            assertEquals(Reader.ProcessStatus.REFILL, sr.processReadMode(bb.slice(bb.position(), 1)));
+            bb.get();
+        }
+        assertEquals(Reader.ProcessStatus.DONE, sr.processReadMode(bb));
+        assertEquals(string, sr.get());
+        assertEquals(0, bb.remaining());
+    }
+
+    @Test
+    public void bigString() {
+        var string = "\u20ACa".repeat(100_000);
+        var bytes = StandardCharsets.UTF_8.encode(string);
+        var all = ByteBuffer.allocate(Integer.BYTES + bytes.remaining());
+        all.putInt(bytes.remaining()).put(bytes).flip();
+        var bb = ByteBuffer.allocate(1_000);
+        var sr = new StringReader(1_000_000);
+        var status = Reader.ProcessStatus.REFILL;
+        while (all.hasRemaining()) {
+            assertEquals(Reader.ProcessStatus.REFILL, status);
+            var chunk = all.slice(all.position(), Math.min(bb.remaining(), all.remaining()));
+            all.position(all.position() + chunk.remaining());
+            status = sr.process(bb.put(chunk));
+        }
+        assertEquals(Reader.ProcessStatus.DONE, status);
+        assertEquals(string, sr.get());
+        sr.reset();
+        bb.clear().putInt(1_000_001);
+        assertEquals(Reader.ProcessStatus.ERROR, sr.process(bb));
+    }
+
+    @Test
+    public void cached() {
+        var cache = new StringCache(4);
+        var sr = new StringReader(1_024, cache);
+        var bb = ByteBuffer.allocate(1024);
+        for (var string : new String[]{"\u20ACa\u20AC", "login", "\u20ACa\u20AC"}) {
+            var bytes = StandardCharsets.UTF_8.encode(string);
+            bb.putInt(bytes.remaining()).put(bytes);
+        }
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        var first = sr.get();
+        sr.reset();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertEquals("login", sr.get());
+        sr.reset();
+        assertEquals(Reader.ProcessStatus.DONE, sr.process(bb));
+        assertEquals("\u20ACa\u20AC", sr.get());
+        assertSame(first, sr.get());
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+}
@@ -0,0 +1,65 @@
+package fr.uge.net.tp13;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdaptiveBufferTest {
+
+    @Test
+    public void borrowOnlyWhenUsed() {
+        var small = new BufferPool(16, 4);
+        var large = new BufferPool(64, 4);
+        var buffer = new AdaptiveBuffer(this, small, large);
+        assertNull(buffer.peek());
+        assertEquals(0, small.borrowed());
+        buffer.get().put((byte) 1);
+        assertEquals(1, small.borrowed());
+        assertFalse(buffer.releaseIfEmpty());
+        buffer.peek().clear();
+        assertTrue(buffer.releaseIfEmpty());
+        assertNull(buffer.peek());
+        assertEquals(0, small.borrowed());
+    }
+
+    @Test
+    public void growKeepsContent() {
+        var small = new BufferPool(16, 4);
+        var large = new BufferPool(64, 4);
+        var buffer = new AdaptiveBuffer(this, small, large);
+        for (int i = 0; i < 2; i++) {
+            var bb = buffer.get().clear(); // as if written in between
+            var room = bb.remaining();
+            bb.put(ByteBuffer.allocate(16).putInt(0, 42).putInt(12, i));
+            buffer.afterRead(room, room);
+        }
+        var bb = buffer.peek();
+        assertEquals(64, bb.capacity());
+        assertEquals(16, bb.position());
+        assertEquals(42, bb.getInt(0));
+        assertEquals(1, bb.getInt(12));
+        assertEquals(0, small.borrowed());
+        assertEquals(1, large.borrowed());
+        buffer.release();
+        assertEquals(0, large.borrowed());
+        assertEquals(16, buffer.get().capacity()); // small again once released
+    }
+
+    @Test
+    public void partialReadsDoNotGrow() {
+        var small = new BufferPool(16, 4);
+        var large = new BufferPool(64, 4);
+        var buffer = new AdaptiveBuffer(this, small, large);
+        buffer.get();
+        buffer.afterRead(16, 16);
+        buffer.afterRead(10, 16);
+        buffer.afterRead(16, 16);
+        assertEquals(16, buffer.peek().capacity());
+        assertEquals(0, large.borrowed());
+    }
+}
@@ -0,0 +1,106 @@
+package fr.uge.net.tp13;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * Thread safe pool of direct buffers of the same size.
+ * <p>
+ * The buffers are carved from large direct slabs, so an accept allocates no buffer (only the
+ * small Cleanable tracking its owner) and the reads and writes on the socket do not go through
+ * the temporary direct buffer the JDK uses for heap buffers. A buffer borrowed with acquire
+ * must be given back with release. If its owner becomes unreachable before, the leak is logged
+ * and the buffer goes back to the pool.
+ */
+public class BufferPool {
+    private static final Logger logger = Logger.getLogger(BufferPool.class.getName());
+    private static final Cleaner cleaner = Cleaner.create();
+    private final int bufferSize;
+    private final int buffersPerSlab;
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private final IdentityHashMap<ByteBuffer, Cleaner.Cleanable> borrowedBuffers = new IdentityHashMap<>();
+    private int nbSlabs;
+    private long nbLeaks;
+
+    public BufferPool(int bufferSize, int buffersPerSlab) {
+        if (bufferSize <= 0 || buffersPerSlab <= 0) {
+            throw new IllegalArgumentException("bufferSize and buffersPerSlab must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.buffersPerSlab = buffersPerSlab;
+    }
+
+    /**
+     * Borrow a buffer from the pool
+     *
+     * @param owner - object holding the buffer, the buffer is reclaimed if it becomes unreachable
+     * @return a cleared buffer, in write-mode
+     */
+    public synchronized ByteBuffer acquire(Object owner) {
+        Objects.requireNonNull(owner);
+        if (freeBuffers.isEmpty()) {
+            addSlab();
+        }
+        var buffer = freeBuffers.pop().clear(); // whatever a faulty owner did after its release
+        // the action must not capture the owner, otherwise it would never become unreachable
+        borrowedBuffers.put(buffer, cleaner.register(owner, () -> reclaimLeak(buffer)));
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool, it must not be used afterwards
+     *
+     * @param buffer - buffer obtained with acquire
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        var cleanable = borrowedBuffers.remove(buffer);
+        if (cleanable == null) {
+            throw new IllegalStateException("Buffer not borrowed from this pool or already released");
+        }
+        // unregisters the owner, the reclaimLeak it runs does nothing as the buffer was just removed
+        cleanable.clean();
+        freeBuffers.push(buffer.clear());
+    }
+
+    private synchronized void reclaimLeak(ByteBuffer buffer) {
+        if (borrowedBuffers.remove(buffer) == null) {
+            return;
+        }
+        nbLeaks++;
+        logger.warning("Buffer of " + bufferSize + " bytes not released before its owner was garbage collected");
+        freeBuffers.push(buffer.clear());
+    }
+
+    private void addSlab() {
+        var slab = ByteBuffer.allocateDirect(bufferSize * buffersPerSlab);
+        for (int i = buffersPerSlab - 1; i >= 0; i--) {
+            freeBuffers.push(slab.slice(i * bufferSize, bufferSize));
+        }
+        nbSlabs++;
+        logger.info("New slab allocated, " + this);
+    }
+
+    /**
+     * Return the number of buffers currently borrowed
+     */
+    public synchronized int borrowed() {
+        return borrowedBuffers.size();
+    }
+
+    /**
+     * Return the number of buffers that were reclaimed because their owner did not release them
+     */
+    public synchronized long leaks() {
+        return nbLeaks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool: " + borrowedBuffers.size() + "/" + nbSlabs * buffersPerSlab + " buffers of "
+                + bufferSize + " bytes in use (" + nbSlabs + " slabs), " + nbLeaks + " leaks";
+    }
+}
@@ -0,0 +1,260 @@
+package fr.uge.net.tp13;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless load generator for the chat servers.
+ * <p>
+ * Opens many connections spread over a few selector threads, sends messages at a fixed
+ * aggregated rate, the text of each message being the time it was scheduled to be sent, and
+ * records for every message received the delay between that time and its reception, i.e. the
+ * fan-out latency.
+ * <p>
+ * The latency starts at the scheduled time, not at the time the message is actually written:
+ * when the generator or the socket falls behind the rate, the messages late to be sent count
+ * their delay, otherwise the percentiles would hide it (coordinated omission).
+ */
+public class ChatLoadGenerator {
+    private static final int BUFFER_SIZE = 64 * 1_024;
+    private static final long DRAIN_DELAY = TimeUnit.SECONDS.toNanos(2); // wait for the last messages
+    private static final Logger logger = Logger.getLogger(ChatLoadGenerator.class.getName());
+    private final InetSocketAddress serverAddress;
+    private final int nbClients;
+    private final int messagesPerSecond;
+    private final int durationInSeconds;
+    private final int nbSelectors;
+
+    public ChatLoadGenerator(InetSocketAddress serverAddress, int nbClients, int messagesPerSecond,
+                             int durationInSeconds, int nbSelectors) {
+        if (nbClients < 1 || messagesPerSecond < 1 || durationInSeconds < 1 || nbSelectors < 1) {
+            throw new IllegalArgumentException("All the parameters must be positive");
+        }
+        this.serverAddress = serverAddress;
+        this.nbClients = nbClients;
+        this.messagesPerSecond = messagesPerSecond;
+        this.durationInSeconds = durationInSeconds;
+        this.nbSelectors = Math.min(nbSelectors, nbClients);
+    }
+
+    public static void main(String[] args) throws NumberFormatException, IOException, InterruptedException {
+        if (args.length != 5 && args.length != 6) {
+            usage();
+            return;
+        }
+        var nbSelectors = args.length == 6 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        new ChatLoadGenerator(new InetSocketAddress(args[0], Integer.parseInt(args[1])), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]), nbSelectors).launch();
+    }
+
+    private static void usage() {
+        System.out.println("Usage : ChatLoadGenerator hostname port nbClients messagesPerSecond durationInSeconds [nbSelectors]");
+    }
+
+    public void launch() throws IOException, InterruptedException {
+        var workers = new ArrayList<Worker>();
+        for (int i = 0; i < nbSelectors; i++) {
+            var first = i * nbClients / nbSelectors;
+            var last = (i + 1) * nbClients / nbSelectors;
+            workers.add(new Worker(first, last - first));
+        }
+        logger.info(nbClients + " clients connected");
+        var end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationInSeconds);
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < workers.size(); i++) {
+            var worker = workers.get(i);
+            var thread = new Thread(() -> worker.run(end));
+            thread.setName("Load " + i);
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        report(workers);
+    }
+
+    private void report(List<Worker> workers) {
+        var latencies = new LatencyHistogram();
+        long sent = 0;
+        long received = 0;
+        long loginHits = 0;
+        long loginMisses = 0;
+        for (var worker : workers) {
+            latencies.add(worker.latencies);
+            sent += worker.sent;
+            received += worker.received;
+            for (var connection : worker.connections) {
+                loginHits += connection.messageReader.loginCache().hits();
+                loginMisses += connection.messageReader.loginCache().misses();
+            }
+        }
+        var seconds = (double) durationInSeconds;
+        System.out.printf("%d clients, %d messages sent (%.0f msg/s), %d messages received (%.0f msg/s)%n",
+                nbClients, sent, sent / seconds, received, received / seconds);
+        System.out.println("Fan-out latency: " + latencies);
+        System.out.println("Login cache: " + loginHits + " hits, " + loginMisses + " misses");
+    }
+
+    /**
+     * A selector thread driving a part of the connections
+     */
+    private class Worker {
+        private final Selector selector = Selector.open();
+        private final Connection[] connections;
+        private final long sendInterval; // in nanoseconds, between two messages sent by this worker
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long sent;
+        private long received;
+        private int nextSender;
+
+        private Worker(int firstClient, int nbConnections) throws IOException {
+            connections = new Connection[nbConnections];
+            for (int i = 0; i < nbConnections; i++) {
+                var sc = SocketChannel.open(serverAddress);
+                sc.configureBlocking(false);
+                var key = sc.register(selector, SelectionKey.OP_READ);
+                connections[i] = new Connection(this, key, "load" + (firstClient + i));
+                key.attach(connections[i]);
+            }
+            sendInterval = TimeUnit.SECONDS.toNanos(1) * nbSelectors / messagesPerSecond;
+        }
+
+        private void run(long end) {
+            var nextSend = System.nanoTime();
+            try {
+                for (var now = System.nanoTime(); now < end + DRAIN_DELAY; now = System.nanoTime()) {
+                    while (now < end && nextSend <= now) {
+                        // stamped with the scheduled time, a message sent late counts its delay
+                        connections[nextSender].queueMessage(new Message(connections[nextSender].login,
+                                Long.toString(nextSend)));
+                        nextSender = (nextSender + 1) % connections.length;
+                        nextSend += sendInterval;
+                        sent++;
+                    }
+                    var timeout = now < end ? nextSend - now : end + DRAIN_DELAY - now;
+                    selector.select(this::treatKey, Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeout)));
+                }
+            } catch (IOException | UncheckedIOException e) {
+                logger.log(Level.SEVERE, "Load worker stopped", e);
+            } finally {
+                for (var connection : connections) {
+                    connection.silentlyClose();
+                }
+            }
+        }
+
+        private void treatKey(SelectionKey key) {
+            var connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.doWrite();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.doRead();
+                }
+            } catch (IOException e) {
+                logger.log(Level.INFO, "Connection closed by the server", e);
+                connection.silentlyClose();
+            }
+        }
+    }
+
+    static private class Connection {
+        private final Worker worker;
+        private final SelectionKey key;
+        private final SocketChannel sc;
+        private final String login;
+        private final ByteBuffer bufferIn = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final MessageReader messageReader = new MessageReader();
+        private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>(); // frames in read-mode
+
+        private Connection(Worker worker, SelectionKey key, String login) {
+            this.worker = worker;
+            this.key = key;
+            this.sc = (SocketChannel) key.channel();
+            this.login = login;
+        }
+
+        /**
+         * Process the content of bufferIn, recording the latency of every message
+         * <p>
+         * The convention is that bufferIn is in write-mode before the call to process
+         * and after the call
+         */
+        private void processIn() {
+            for (; ; ) {
+                switch (messageReader.process(bufferIn)) {
+                    case DONE -> {
+                        var now = System.nanoTime();
+                        worker.received++;
+                        try {
+                            worker.latencies.record(now - Long.parseLong(messageReader.get().getText()));
+                        } catch (NumberFormatException e) {
+                            // not sent by a load generator, only counted
+                        }
+                        messageReader.reset();
+                    }
+                    case REFILL -> {
+                        return;
+                    }
+                    case ERROR -> {
+                        silentlyClose();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void queueMessage(Message msg) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            queue.addLast(msg.toBuffer());
+            if (queue.size() == 1) {
+                doWrite();
+            }
+        }
+
+        private void doRead() throws IOException {
+            if (-1 == sc.read(bufferIn)) {
+                silentlyClose();
+                return;
+            }
+            processIn();
+        }
+
+        private void doWrite() throws IOException {
+            while (!queue.isEmpty()) {
+                var frame = queue.peekFirst();
+                sc.write(frame);
+                if (frame.hasRemaining()) {
+                    break;
+                }
+                queue.removeFirst();
+            }
+            if (key.isValid()) {
+                key.interestOps(queue.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void silentlyClose() {
+            try {
+                sc.close();
+            } catch (IOException e) {
+                // ignore exception
+            }
+        }
+    }
+}
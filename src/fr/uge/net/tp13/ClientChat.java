@@ -8,20 +8,34 @@ import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 public class ClientChat {
 
     static private final int BUFFER_SIZE = 10_000;
+    static private final int MAX_TEXT_SIZE = 4 * 1_024 * 1_024; // as ServerChaton.DEFAULT_MAX_TEXT_SIZE
+    static private final int MAX_LOGIN_SIZE = 1_024; // as in StringReader
+    static private final int MAX_GATHER = 16; // max number of frames sent by one write, bounds the encoded messages
+    static private final String JOIN_COMMAND = "/join ";
+    static private final String HISTORY_COMMAND = "/history ";
+    static private final String HEADLESS_OPTION = "--headless";
+    static private final long LINGER = TimeUnit.SECONDS.toNanos(2); // headless, wait for the last messages
     static private final Logger logger = Logger.getLogger(ClientChat.class.getName());
     private final SocketChannel sc;
     private final Selector selector;
     private final InetSocketAddress serverAddress;
     private final String login;
     private final Thread console;
-    private final StringController stringController = new StringController();
+    private final CommandQueue<String> commandQueue;
+    private final FrameDeflater frameDeflater = new FrameDeflater(Integer.MAX_VALUE); // only inflates
     private Context uniqueContext;
 
     public ClientChat(String login, InetSocketAddress serverAddress) throws IOException {
@@ -29,10 +43,18 @@ public class ClientChat {
         this.login = login;
         this.sc = SocketChannel.open();
         this.selector = Selector.open();
+        this.commandQueue = new CommandQueue<>(selector::wakeup);
         this.console = new Thread(this::consoleRun);
     }
 
     public static void main(String[] args) throws NumberFormatException, IOException {
+        if (args.length >= 6 && args.length <= 7 && args[0].equals(HEADLESS_OPTION)) {
+            var interval = args.length == 7 ? Long.parseLong(args[6]) : 0;
+            new Headless(args[1], new InetSocketAddress(args[2], Integer.parseInt(args[3])), Integer.parseInt(args[4]),
+                    Files.readAllLines(Path.of(args[5]), StandardCharsets.UTF_8),
+                    TimeUnit.MILLISECONDS.toNanos(interval)).launch();
+            return;
+        }
         if (args.length != 3) {
             usage();
             return;
@@ -42,6 +64,7 @@ public class ClientChat {
 
     private static void usage() {
         System.out.println("Usage : ClientChat login hostname port");
+        System.out.println("        ClientChat " + HEADLESS_OPTION + " loginPrefix hostname port nbSessions scriptFile [intervalMillis]");
     }
 
     private void consoleRun() {
@@ -59,14 +82,13 @@ public class ClientChat {
     }
 
     /**
-     * Send instructions to the selector via messageController and wake it up
+     * Send instructions to the selector via commandQueue, which wakes it up if needed
      *
      * @param msg - msg
      * @throws InterruptedException - if thread has been interrupted
      */
     private void sendCommand(String msg) throws InterruptedException {
-        stringController.add(msg);
-        selector.wakeup();
+        commandQueue.offer(msg);
         // Cause the exception if the main thread has requested the interrupt
         if (Thread.interrupted()) {
             throw new InterruptedException("Interrupted by main thread");
@@ -74,18 +96,16 @@ public class ClientChat {
     }
 
     /**
-     * Processes the command from the messageController
+     * Processes the commands from the commandQueue, in one pass
      */
     private void processCommands() {
-        while (stringController.hasMessages()) {
-            uniqueContext.queueMessage(new Message(login, stringController.poll()));
-        }
+        commandQueue.drain(line -> uniqueContext.processLine(line));
     }
 
     public void launch() throws IOException {
         sc.configureBlocking(false);
         var key = sc.register(selector, SelectionKey.OP_CONNECT);
-        uniqueContext = new Context(key);
+        uniqueContext = new Context(key, login, false, frameDeflater);
         key.attach(uniqueContext);
         sc.connect(serverAddress);
 
@@ -153,14 +173,59 @@ public class ClientChat {
         private final SelectionKey key;
         private final SocketChannel sc;
         private final ByteBuffer bufferIn = ByteBuffer.allocate(BUFFER_SIZE);
-        private final ByteBuffer bufferOut = ByteBuffer.allocate(BUFFER_SIZE);
-        private final MessageReader messageReader = new MessageReader();
-        private final ArrayDeque<Message> queue = new ArrayDeque<>();
+        private final MessageReader messageReader = new MessageReader(MAX_TEXT_SIZE);
+        private final FrameReader frameReader = new FrameReader(MAX_TEXT_SIZE); // control frames
+        private final FrameDeflater frameDeflater; // shared by the contexts of the selector thread
+        private final String login;
+        private final boolean quiet; // the messages received are only counted
+        private Reader<?> reader; // reader of the frame being received, null between two frames
+        private final MessageWriter messageWriter = new MessageWriter();
+        private final ArrayDeque<Object> queue = new ArrayDeque<>(); // messages and control frames in read-mode
+        private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>(); // frames ready to be sent, in read-mode
+        private final ArrayDeque<ByteBuffer> encoded = new ArrayDeque<>(); // the buffers of out filled by messageWriter
+        private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>(); // for messageWriter, reused
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+        private ByteBuffer tail; // write-mode, buffer being filled by messageWriter, or null
+        private boolean writing = false; // the message at the head of the queue is in messageWriter
         private boolean closed = false;
+        private long sent; // messages encoded
+        private long received; // messages read
 
-        private Context(SelectionKey key) {
+        private Context(SelectionKey key, String login, boolean quiet, FrameDeflater frameDeflater) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.login = login;
+            this.quiet = quiet;
+            this.frameDeflater = frameDeflater;
+        }
+
+        /**
+         * A line "/join room" moves the client to another room, a line "/history count" asks for
+         * the last messages of the room, any other line is sent as a message.
+         */
+        private void processLine(String line) {
+            if (line.startsWith(JOIN_COMMAND)) {
+                queueFrame(ChatProtocol.join(line.substring(JOIN_COMMAND.length())));
+            } else if (line.startsWith(HISTORY_COMMAND)) {
+                try {
+                    var count = Integer.parseInt(line.substring(HISTORY_COMMAND.length()).strip());
+                    queueFrame(ChatProtocol.history(count));
+                } catch (NumberFormatException e) {
+                    logger.info("Usage : " + HISTORY_COMMAND + "count");
+                }
+            } else if (messageWriter.textSize(line) > MAX_TEXT_SIZE) {
+                // the server would disconnect the client
+                logger.info("Message of more than " + MAX_TEXT_SIZE + " bytes not sent");
+            } else {
+                queueMessage(new Message(login, line));
+            }
+        }
+
+        private void onMessage(Message message) {
+            received++;
+            if (!quiet) {
+                System.out.println(message);
+            }
         }
 
         /**
@@ -171,12 +236,24 @@ public class ClientChat {
          */
         private void processIn() {
             for (; ; ) {
-                Reader.ProcessStatus status = messageReader.process(bufferIn);
+                if (reader == null) {
+                    if (bufferIn.position() < Integer.BYTES) {
+                        return;
+                    }
+                    // a chat frame starts with the size of the login, a control frame with a negative opcode
+                    reader = bufferIn.getInt(0) >= 0 ? messageReader : frameReader;
+                }
+                Reader.ProcessStatus status = reader.process(bufferIn);
                 switch (status) {
                     case DONE:
-                        var message = messageReader.get();
-                        System.out.println(message);
-                        messageReader.reset();
+                        if (reader == messageReader) {
+                            onMessage(messageReader.get());
+                        } else if (!processControl(frameReader.get())) {
+                            silentlyClose();
+                            return;
+                        }
+                        reader.reset();
+                        reader = null;
                         break;
                     case REFILL:
                         return;
@@ -188,7 +265,34 @@ public class ClientChat {
         }
 
         /**
-         * Add a message to the message queue, tries to fill bufferOut and updateInterestOps
+         * Process a control frame sent by the server
+         *
+         * @param frame - control frame, in read-mode
+         * @return false if the frame is malformed
+         */
+        private boolean processControl(ByteBuffer frame) {
+            switch (ChatProtocol.opcode(frame)) {
+                case ChatProtocol.DEFLATE -> {
+                    if (!quiet) {
+                        logger.info("The server sends deflated frames");
+                    }
+                }
+                case ChatProtocol.DEFLATED -> {
+                    var chatFrame = frameDeflater.inflate(frame, 2 * (Integer.BYTES + MAX_TEXT_SIZE), MAX_LOGIN_SIZE);
+                    if (chatFrame == null || messageReader.processReadMode(chatFrame) != Reader.ProcessStatus.DONE) {
+                        logger.info("Malformed deflated frame");
+                        return false;
+                    }
+                    onMessage(messageReader.get());
+                    messageReader.reset();
+                }
+                default -> logger.info("Unknown opcode " + ChatProtocol.opcode(frame) + ", frame ignored");
+            }
+            return true;
+        }
+
+        /**
+         * Add a message to the queue, tries to encode it and updateInterestOps
          *
          * @param msg - msg
          */
@@ -199,23 +303,67 @@ public class ClientChat {
         }
 
         /**
-         * Try to fill bufferOut from the message queue
+         * Add a control frame to the queue, tries to move it to out and updateInterestOps
+         *
+         * @param frame - frame, in read-mode
+         */
+        private void queueFrame(ByteBuffer frame) {
+            queue.addLast(frame);
+            processOut();
+            updateInterestOps();
+        }
+
+        /**
+         * Move the queue to out, until out holds MAX_GATHER frames. A control frame goes in out
+         * as it is, never copied. Messages are encoded by messageWriter into buffers of the
+         * connection that are reused once sent, several messages sharing a buffer and a big
+         * message being split across buffers.
+         * <p>
+         * The convention is that tail is in write-mode and the frames of out are in read-mode
+         * before the call to processOut and after the call
          */
         private void processOut() {
-            while (!queue.isEmpty()) {
-                var message = queue.peekFirst();
-                message.fillBuffer(bufferOut);
-                if (message.isDone()) {
-                    queue.removeFirst();
+            while (!queue.isEmpty() && out.size() < MAX_GATHER) {
+                if (queue.peekFirst() instanceof ByteBuffer frame) {
+                    seal(); // the messages before the frame are sent before it
+                    out.addLast(frame);
+                } else {
+                    if (!writing) {
+                        messageWriter.set((Message) queue.peekFirst());
+                        writing = true;
+                    }
+                    if (tail == null) {
+                        tail = freeBuffers.isEmpty() ? ByteBuffer.allocate(BUFFER_SIZE) : freeBuffers.pop();
+                    }
+                    if (messageWriter.process(tail) == Writer.ProcessStatus.FULL) {
+                        seal();
+                        continue;
+                    }
+                    messageWriter.reset();
+                    writing = false;
+                    sent++;
                 }
+                queue.removeFirst();
             }
         }
 
+        /**
+         * Move tail at the end of out if a message was encoded in it
+         */
+        private void seal() {
+            if (tail == null || tail.position() == 0) {
+                return;
+            }
+            out.addLast(tail.flip());
+            encoded.addLast(tail);
+            tail = null;
+        }
+
         /**
          * Update the interestOps of the key looking only at values of the boolean
-         * closed and of both ByteBuffers.
+         * closed, of bufferIn, of out and of tail.
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn and tail are in write-mode before the call to
          * updateInterestOps and after the call. Also, it is assumed that process has
          * been be called just before updateInterestOps.
          */
@@ -228,7 +376,7 @@ public class ClientChat {
             if (!closed && bufferIn.hasRemaining()) {
                 interestOps |= SelectionKey.OP_READ;
             }
-            if (bufferOut.position() != 0) {
+            if (!out.isEmpty() || (tail != null && tail.position() != 0)) {
                 interestOps |= SelectionKey.OP_WRITE;
             }
             if (interestOps == 0) {
@@ -249,7 +397,7 @@ public class ClientChat {
         /**
          * Performs the read action on sc
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
+         * The convention is that bufferIn is in write-mode before the call to
          * doRead and after the call
          *
          * @throws IOException - If an I/O error occurs
@@ -263,18 +411,36 @@ public class ClientChat {
         }
 
         /**
-         * Performs the write action on sc
+         * Performs the write action on sc, sending the head of out with one gathering write.
+         * A partially written frame stays at the head of out, the buffers of messageWriter that
+         * are fully sent are reused.
          * <p>
-         * The convention is that both buffers are in write-mode before the call to
-         * doWrite and after the call
+         * The convention is that tail is in write-mode and the frames of out are in read-mode
+         * before the call to doWrite and after the call
          *
          * @throws IOException - If an I/O error occurs
          */
 
         private void doWrite() throws IOException {
-            bufferOut.flip();
-            sc.write(bufferOut);
-            bufferOut.compact();
+            seal();
+            var nbFrames = 0;
+            for (var frame : out) {
+                if (nbFrames == MAX_GATHER) {
+                    break;
+                }
+                gather[nbFrames++] = frame;
+            }
+            sc.write(gather, 0, nbFrames);
+            for (int i = 0; i < nbFrames; i++) {
+                if (gather[i].hasRemaining()) {
+                    break;
+                }
+                out.removeFirst();
+                if (gather[i] == encoded.peekFirst()) {
+                    freeBuffers.push(encoded.removeFirst().clear());
+                }
+            }
+            Arrays.fill(gather, 0, nbFrames, null);
             processOut();
             updateInterestOps();
         }
@@ -282,7 +448,166 @@ public class ClientChat {
         public void doConnect() throws IOException {
             if (!sc.finishConnect())
                 return; // the selector gave a bad hint
-            key.interestOps(SelectionKey.OP_READ);
+            queueFrame(ChatProtocol.deflate()); // ignored by a server without compression
+        }
+    }
+
+    /**
+     * Many sessions over one selector to soak test a server, each session being a Context as in
+     * the interactive mode but counting the messages it receives instead of printing them.
+     * <p>
+     * Every session plays the same script, a line being a message, "/join room" or "/history count".
+     * The script starts once all the sessions are connected, so that they all get all the messages.
+     * A session sends its next line every interval, the sessions being spread over the interval.
+     * Once all the lines are sent, the messages still coming are awaited until none arrives for
+     * LINGER, then the send and receive rates of each session are reported.
+     */
+    static private class Headless {
+        private final Selector selector;
+        private final List<String> script;
+        private final long interval;
+        private final FrameDeflater frameDeflater = new FrameDeflater(Integer.MAX_VALUE); // only inflates
+        private final Context[] sessions;
+        private final int[] nextLines; // index in the script of the next line of each session
+        private long nextDue; // time of the next line to send by a connected session
+
+        private Headless(String loginPrefix, InetSocketAddress serverAddress, int nbSessions, List<String> script,
+                         long interval) throws IOException {
+            if (nbSessions < 1 || interval < 0) {
+                throw new IllegalArgumentException("Expected nbSessions >= 1 and intervalMillis >= 0");
+            }
+            this.script = List.copyOf(script);
+            this.interval = interval;
+            selector = Selector.open();
+            sessions = new Context[nbSessions];
+            nextLines = new int[nbSessions];
+            for (int i = 0; i < nbSessions; i++) {
+                var sc = SocketChannel.open();
+                sc.configureBlocking(false);
+                var key = sc.register(selector, SelectionKey.OP_CONNECT);
+                sessions[i] = new Context(key, loginPrefix + i, true, frameDeflater);
+                key.attach(sessions[i]);
+                sc.connect(serverAddress);
+            }
+        }
+
+        private void launch() throws IOException {
+            var connected = 0;
+            while (connected < sessions.length) {
+                selector.select(this::treatKey);
+                connected = 0;
+                for (var session : sessions) {
+                    if (session.sc.isConnected() || !session.sc.isOpen()) {
+                        connected++;
+                    }
+                }
+            }
+            var start = System.nanoTime();
+            var lastReception = start;
+            var lastReceived = 0L;
+            for (; ; ) {
+                var now = System.nanoTime();
+                var pending = sendDueLines(start, now);
+                var received = 0L;
+                for (var session : sessions) {
+                    received += session.received;
+                }
+                if (received != lastReceived) {
+                    lastReceived = received;
+                    lastReception = now;
+                }
+                long wait;
+                if (pending != 0) {
+                    wait = nextDue == Long.MAX_VALUE ? 0 : nextDue - now; // 0, only connections are awaited
+                } else {
+                    wait = lastReception + LINGER - now;
+                    if (wait <= 0) {
+                        break;
+                    }
+                }
+                selector.select(this::treatKey, wait == 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+            }
+            report(System.nanoTime() - start);
+            for (var session : sessions) {
+                session.silentlyClose();
+            }
+            selector.close();
+        }
+
+        /**
+         * Send the lines that are due and compute nextDue
+         *
+         * @return the number of open sessions that have lines left to send
+         */
+        private int sendDueLines(long start, long now) {
+            var pending = 0;
+            nextDue = Long.MAX_VALUE;
+            for (int i = 0; i < sessions.length; i++) {
+                var session = sessions[i];
+                if (!session.sc.isOpen() || nextLines[i] == script.size()) {
+                    continue;
+                }
+                pending++;
+                if (!session.sc.isConnected()) {
+                    continue; // nothing can be queued before the connection is established
+                }
+                var offset = start + interval * i / sessions.length; // spreads the sessions
+                long due;
+                while ((due = offset + interval * nextLines[i]) - now <= 0) {
+                    session.processLine(script.get(nextLines[i]++));
+                    if (nextLines[i] == script.size()) {
+                        pending--;
+                        break;
+                    }
+                }
+                if (nextLines[i] != script.size() && due - nextDue < 0) {
+                    nextDue = due;
+                }
+            }
+            return pending;
+        }
+
+        private void treatKey(SelectionKey key) {
+            var session = (Context) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    session.doConnect();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    session.doWrite();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    session.doRead();
+                }
+            } catch (IOException e) {
+                logger.info("Session " + session.login + " closed due to IOException: " + e.getMessage());
+                session.silentlyClose();
+            }
+        }
+
+        private void report(long duration) {
+            var seconds = duration / 1e9;
+            var totalSent = 0L;
+            var totalReceived = 0L;
+            var closed = 0;
+            var minRate = Double.MAX_VALUE;
+            var maxRate = 0.0;
+            System.out.printf("%-16s %10s %10s %10s %10s%n", "session", "sent", "received", "sent/s", "received/s");
+            for (var session : sessions) {
+                System.out.printf("%-16s %10d %10d %10.1f %10.1f%n", session.login, session.sent, session.received,
+                        session.sent / seconds, session.received / seconds);
+                totalSent += session.sent;
+                totalReceived += session.received;
+                minRate = Math.min(minRate, session.received / seconds);
+                maxRate = Math.max(maxRate, session.received / seconds);
+                if (!session.sc.isOpen()) {
+                    closed++;
+                }
+            }
+            System.out.printf("%d sessions (%d closed) in %.1f s: %d messages sent (%.1f/s), %d received (%.1f/s)%n",
+                    sessions.length, closed, seconds, totalSent, totalSent / seconds, totalReceived, totalReceived / seconds);
+            System.out.printf("received/s per session: min %.1f, avg %.1f, max %.1f%n",
+                    minRate, totalReceived / seconds / sessions.length, maxRate);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package fr.uge.net.tp13;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free queue of the commands sent to a selector thread by any number of threads.
+ * <p>
+ * The producers push their command on a stack with a compare-and-set, the consumer takes the
+ * whole stack with one getAndSet and runs the commands in the order they were offered. The
+ * consumer is woken up only by the command that makes the queue non-empty: until the next
+ * drain, the other commands find it non-empty and do not wake it up again. As the drain takes
+ * everything, a command offered during a drain wakes the consumer up for the next one, so no
+ * command is left behind.
+ */
+public final class CommandQueue<T> {
+    private final AtomicReference<Node<T>> top = new AtomicReference<>(); // last offered command
+    private final Runnable wakeup;
+
+    private static final class Node<T> {
+        private final T command;
+        private Node<T> next; // offered before this one, then after this one once drained
+
+        private Node(T command) {
+            this.command = command;
+        }
+    }
+
+    /**
+     * @param wakeup - wakes up the consumer, usually selector::wakeup
+     */
+    public CommandQueue(Runnable wakeup) {
+        this.wakeup = Objects.requireNonNull(wakeup);
+    }
+
+    /**
+     * Add a command and wake up the consumer if the queue was empty. Can be called from any thread.
+     *
+     * @return true if the consumer was woken up
+     */
+    public boolean offer(T command) {
+        var node = new Node<>(Objects.requireNonNull(command));
+        Node<T> previous;
+        do {
+            previous = top.get();
+            node.next = previous;
+        } while (!top.compareAndSet(previous, node));
+        if (previous == null) {
+            wakeup.run();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Run consumer on all the commands, in the order they were offered. Only called by the
+     * consumer thread. If consumer throws, the commands not run yet are lost.
+     *
+     * @return the number of commands
+     */
+    public int drain(Consumer<? super T> consumer) {
+        var node = top.getAndSet(null);
+        // reverse the stack in place to get the commands in order
+        Node<T> first = null;
+        while (node != null) {
+            var next = node.next;
+            node.next = first;
+            first = node;
+            node = next;
+        }
+        var count = 0;
+        for (; first != null; first = first.next) {
+            consumer.accept(first.command);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return true if there is no command, can be called from any thread
+     */
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+}
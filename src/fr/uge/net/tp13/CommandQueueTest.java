@@ -0,0 +1,85 @@
+package fr.uge.net.tp13;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CommandQueueTest {
+
+    @Test
+    public void wakeupOnlyWhenEmpty() {
+        var wakeups = new AtomicInteger();
+        var queue = new CommandQueue<String>(wakeups::incrementAndGet);
+        assertTrue(queue.offer("a"));
+        assertFalse(queue.offer("b"));
+        assertFalse(queue.offer("c"));
+        assertEquals(1, wakeups.get());
+        var commands = new ArrayList<String>();
+        assertEquals(3, queue.drain(commands::add));
+        assertEquals(List.of("a", "b", "c"), commands);
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.offer("d"));
+        assertEquals(2, wakeups.get());
+    }
+
+    @Test
+    public void offerDuringDrain() {
+        var wakeups = new AtomicInteger();
+        var queue = new CommandQueue<Integer>(wakeups::incrementAndGet);
+        queue.offer(1);
+        var commands = new ArrayList<Integer>();
+        queue.drain(command -> {
+            commands.add(command);
+            queue.offer(command + 1); // taken by the next drain, which is woken up
+        });
+        assertEquals(2, wakeups.get());
+        queue.drain(commands::add);
+        assertEquals(List.of(1, 2), commands);
+    }
+
+    @Test
+    public void manyProducers() throws InterruptedException {
+        var nbThreads = 8;
+        var nbCommands = 100_000;
+        var wakeups = new AtomicInteger();
+        var queue = new CommandQueue<int[]>(wakeups::incrementAndGet);
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < nbThreads; t++) {
+            var producer = t;
+            var thread = new Thread(() -> {
+                for (int i = 0; i < nbCommands; i++) {
+                    queue.offer(new int[]{producer, i});
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        var last = new int[nbThreads];
+        Arrays.fill(last, -1);
+        var count = 0;
+        var drains = 0; // that got commands, each one follows at most one wakeup
+        while (count < nbThreads * nbCommands) {
+            var drained = queue.drain(command -> {
+                // the commands of a producer are drained in order
+                assertEquals(last[command[0]] + 1, command[1]);
+                last[command[0]] = command[1];
+            });
+            if (drained != 0) {
+                count += drained;
+                drains++;
+            }
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        assertTrue(queue.isEmpty());
+        assertTrue(wakeups.get() <= drains);
+    }
+}
@@ -0,0 +1,119 @@
+package fr.uge.net.tp13;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses chat frames into DEFLATED frames and back (see ChatProtocol).
+ * <p>
+ * Each frame is compressed on its own, with raw deflate (no zlib header nor checksum) and the
+ * preset dictionary of the protocol, so a frame compressed once can be sent to any client that
+ * negotiated compression. The Deflater and the Inflater hold native memory, they are created
+ * once and reset for each frame. Not thread safe, a reactor has its own.
+ * <p>
+ * The connections share this static dictionary and no deflate stream is kept per connection:
+ * a stream per connection would compress each broadcast once per recipient and would forbid
+ * relaying a DEFLATED frame as it was received. The price is that a frame cannot refer to the
+ * previous ones, so short messages compress less than with a per-connection stream.
+ */
+public class FrameDeflater {
+    private static final int HEADER_SIZE = 3 * Integer.BYTES; // opcode, payload size, chat frame size
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+    private final int minSize;
+    private ByteBuffer scratch = ByteBuffer.allocate(1_024); // write-mode
+    private long bytesIn;
+    private long bytesOut;
+
+    /**
+     * @param minSize - chat frames smaller than this are not worth compressing
+     */
+    public FrameDeflater(int minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * Compress a chat frame
+     *
+     * @param frame - chat frame, in read-mode, left untouched
+     * @return a new read-only DEFLATED frame in read-mode, or null if it would not be smaller than frame
+     */
+    public ByteBuffer deflate(ByteBuffer frame) {
+        var size = frame.remaining();
+        if (size < minSize) {
+            return null;
+        }
+        deflater.reset();
+        deflater.setDictionary(ChatProtocol.DICTIONARY.duplicate());
+        deflater.setInput(frame.duplicate());
+        deflater.finish();
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocate(size);
+        }
+        scratch.clear().limit(size - HEADER_SIZE); // anything bigger is no gain
+        while (!deflater.finished() && scratch.hasRemaining()) {
+            deflater.deflate(scratch);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        scratch.flip();
+        bytesIn += size;
+        bytesOut += HEADER_SIZE + scratch.remaining();
+        return ByteBuffer.allocate(HEADER_SIZE + scratch.remaining())
+                .putInt(ChatProtocol.DEFLATED).putInt(Integer.BYTES + scratch.remaining()).putInt(size)
+                .put(scratch).flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * Decompress a DEFLATED frame, checking that it holds exactly one well-formed chat frame
+     *
+     * @param frame        - DEFLATED frame, in read-mode, left untouched
+     * @param maxSize      - maximum size of the chat frame
+     * @param maxLoginSize - maximum size of the login of the chat frame
+     * @return a new read-only chat frame in read-mode, or null if frame is malformed
+     */
+    public ByteBuffer inflate(ByteBuffer frame, int maxSize, int maxLoginSize) {
+        var payload = ChatProtocol.payload(frame);
+        if (payload.remaining() < Integer.BYTES) {
+            return null;
+        }
+        var size = payload.getInt();
+        if (size < 0 || size > maxSize) {
+            return null;
+        }
+        var chatFrame = ByteBuffer.allocate(size);
+        inflater.reset();
+        inflater.setDictionary(ChatProtocol.DICTIONARY.duplicate());
+        inflater.setInput(payload);
+        try {
+            while (!inflater.finished() && chatFrame.hasRemaining()) {
+                if (inflater.inflate(chatFrame) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null; // truncated
+                }
+            }
+            // the data must end exactly at the end of the chat frame
+            if (!inflater.finished() && inflater.inflate(ByteBuffer.allocate(1)) != 0) {
+                return null;
+            }
+        } catch (DataFormatException e) {
+            return null;
+        }
+        if (!inflater.finished() || chatFrame.hasRemaining() || inflater.getRemaining() != 0) {
+            return null;
+        }
+        chatFrame.flip();
+        if (!ChatProtocol.isWellFormedChat(chatFrame, maxLoginSize)) {
+            return null;
+        }
+        return chatFrame.asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "FrameDeflater: " + bytesIn + " bytes deflated to " + bytesOut
+                + (bytesIn == 0 ? "" : String.format(" (%.1f%%)", 100.0 * bytesOut / bytesIn));
+    }
+}
@@ -0,0 +1,190 @@
+package fr.uge.net.tp13;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a frame of the chat protocol without decoding it, either a chat frame (login and text,
+ * both prefixed by their size) or a control frame (see ChatProtocol).
+ * The frame is returned exactly as received, as a read-only buffer in read-mode, so that
+ * the server can relay it to every client without any charset work.
+ * <p>
+ * A frame that is whole in the buffer given to process is copied in one go. A frame split across
+ * reads is accumulated in a small buffer if its text fits in BUFFER_SIZE, allocated at the first
+ * split frame and kept until trim is called. A bigger text, up to the maximum given to the
+ * constructor, is read in a buffer allocated with the exact size of the frame once the size of
+ * the text is known, and handed out as is.
+ */
+public class FrameReader implements Reader<ByteBuffer> {
+
+    private static final int BUFFER_SIZE = 1_024; // max size of the login and of the text, as in StringReader
+    private final int maxTextSize;
+    private ByteBuffer smallBuffer; // null until a frame is split across reads, or after trim
+    private ByteBuffer internalBuffer; // write-mode, null if smallBuffer is null
+    private State state = State.WAITING_LOGIN_SIZE;
+    private int missing = Integer.BYTES; // bytes missing to complete the current field
+    private ByteBuffer value;
+
+    public FrameReader() {
+        this(BUFFER_SIZE);
+    }
+
+    /**
+     * @param maxTextSize - maximum size in bytes of the text of a chat frame and of the payload
+     *                    of a control frame, the login is still limited to BUFFER_SIZE
+     */
+    public FrameReader(int maxTextSize) {
+        if (maxTextSize < 0) {
+            throw new IllegalArgumentException("maxTextSize must be positive");
+        }
+        this.maxTextSize = maxTextSize;
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            return processReadMode(buffer);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    @Override
+    public ProcessStatus processReadMode(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+        if (state == State.WAITING_LOGIN_SIZE && (internalBuffer == null || internalBuffer.position() == 0)) {
+            var status = processWholeFrame(buffer);
+            if (status != ProcessStatus.REFILL) {
+                return status;
+            }
+        }
+        if (internalBuffer == null) {
+            smallBuffer = ByteBuffer.allocate(2 * (Integer.BYTES + BUFFER_SIZE));
+            internalBuffer = smallBuffer;
+        }
+        while (state != State.DONE) {
+            var toBeRead = Math.min(missing, buffer.remaining());
+            internalBuffer.put(buffer.slice(buffer.position(), toBeRead));
+            buffer.position(buffer.position() + toBeRead);
+            missing -= toBeRead;
+            if (missing > 0) {
+                return ProcessStatus.REFILL;
+            }
+            switch (state) {
+                case WAITING_LOGIN_SIZE, WAITING_TEXT_SIZE -> {
+                    var size = internalBuffer.getInt(internalBuffer.position() - Integer.BYTES);
+                    if (state == State.WAITING_LOGIN_SIZE && size < 0) {
+                        // control frame, the opcode is followed by the size of the payload
+                        missing = Integer.BYTES;
+                        state = State.WAITING_TEXT_SIZE;
+                        continue;
+                    }
+                    var max = state == State.WAITING_LOGIN_SIZE ? BUFFER_SIZE : maxTextSize;
+                    if (size < 0 || size > max) {
+                        state = State.ERROR;
+                        return ProcessStatus.ERROR;
+                    }
+                    if (size > internalBuffer.remaining()) {
+                        internalBuffer = ByteBuffer.allocate(internalBuffer.position() + size)
+                                .put(internalBuffer.flip());
+                    }
+                    missing = size;
+                    state = state == State.WAITING_LOGIN_SIZE ? State.WAITING_LOGIN : State.WAITING_TEXT;
+                }
+                case WAITING_LOGIN -> {
+                    missing = Integer.BYTES;
+                    state = State.WAITING_TEXT_SIZE;
+                }
+                case WAITING_TEXT -> state = State.DONE;
+                default -> throw new AssertionError();
+            }
+        }
+        internalBuffer.flip();
+        if (internalBuffer == smallBuffer) {
+            value = ByteBuffer.allocate(internalBuffer.remaining()).put(internalBuffer).flip().asReadOnlyBuffer();
+        } else {
+            value = internalBuffer.asReadOnlyBuffer(); // allocated for this frame only
+        }
+        return ProcessStatus.DONE;
+    }
+
+    /**
+     * Copy the frame at the position of buffer in one go if it is complete, without going
+     * through internalBuffer. The sizes are checked as by the state machine.
+     *
+     * @return DONE or ERROR, or REFILL if the frame is not complete and buffer is left untouched
+     */
+    private ProcessStatus processWholeFrame(ByteBuffer buffer) {
+        var start = buffer.position();
+        if (buffer.remaining() < Integer.BYTES) {
+            return ProcessStatus.REFILL;
+        }
+        var loginSize = buffer.getInt(start);
+        if (loginSize > BUFFER_SIZE) {
+            state = State.ERROR;
+            return ProcessStatus.ERROR;
+        }
+        // a control frame has no login, its opcode is followed by the size of the payload
+        var textSizeOffset = start + Integer.BYTES + Math.max(loginSize, 0);
+        if (buffer.limit() - textSizeOffset < Integer.BYTES) {
+            return ProcessStatus.REFILL;
+        }
+        var textSize = buffer.getInt(textSizeOffset);
+        if (textSize < 0 || textSize > maxTextSize) {
+            state = State.ERROR;
+            return ProcessStatus.ERROR;
+        }
+        if (buffer.limit() - textSizeOffset - Integer.BYTES < textSize) {
+            return ProcessStatus.REFILL;
+        }
+        var frameSize = textSizeOffset + Integer.BYTES + textSize - start;
+        value = ByteBuffer.allocate(frameSize).put(buffer.slice(start, frameSize)).flip().asReadOnlyBuffer();
+        buffer.position(start + frameSize);
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    /**
+     * Return the frame, as a read-only buffer in read-mode. It is shared by all the recipients
+     * so each of them must work on its own duplicate()
+     */
+    @Override
+    public ByteBuffer get() {
+        if (state != State.DONE) {
+            throw new IllegalStateException();
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        state = State.WAITING_LOGIN_SIZE;
+        missing = Integer.BYTES;
+        value = null;
+        if (smallBuffer != null) {
+            smallBuffer.clear();
+        }
+        internalBuffer = smallBuffer;
+    }
+
+    /**
+     * Drop the buffer of the split frames if no frame is partially read, so that an idle
+     * connection holds no memory. It is allocated again at the next split frame.
+     *
+     * @return true if no frame is partially read
+     */
+    public boolean trim() {
+        if (state != State.WAITING_LOGIN_SIZE || (internalBuffer != null && internalBuffer.position() != 0)) {
+            return false;
+        }
+        smallBuffer = null;
+        internalBuffer = null;
+        return true;
+    }
+
+    private enum State {
+        DONE, WAITING_LOGIN_SIZE, WAITING_LOGIN, WAITING_TEXT_SIZE, WAITING_TEXT, ERROR
+    }
+}
@@ -11,22 +11,27 @@ public class IntReader implements Reader<Integer> {
 
     @Override
     public ProcessStatus process(ByteBuffer buffer) {
-        if (state == State.DONE || state == State.ERROR) {
-            throw new IllegalStateException();
-        }
         buffer.flip();
         try {
-            if (buffer.remaining() <= internalBuffer.remaining()) {
-                internalBuffer.put(buffer);
-            } else {
-                var oldLimit = buffer.limit();
-                buffer.limit(internalBuffer.remaining());
-                internalBuffer.put(buffer);
-                buffer.limit(oldLimit);
-            }
+            return processReadMode(buffer);
         } finally {
             buffer.compact();
         }
+    }
+
+    @Override
+    public ProcessStatus processReadMode(ByteBuffer buffer) {
+        if (state == State.DONE || state == State.ERROR) {
+            throw new IllegalStateException();
+        }
+        if (internalBuffer.position() == 0 && buffer.remaining() >= Integer.BYTES) {
+            state = State.DONE;
+            value = buffer.getInt();
+            return ProcessStatus.DONE;
+        }
+        var toBeRead = Math.min(internalBuffer.remaining(), buffer.remaining());
+        internalBuffer.put(buffer.slice(buffer.position(), toBeRead));
+        buffer.position(buffer.position() + toBeRead);
         if (internalBuffer.hasRemaining()) {
             return ProcessStatus.REFILL;
         }
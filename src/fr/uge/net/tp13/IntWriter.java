@@ -0,0 +1,57 @@
+package fr.uge.net.tp13;
+
+import java.nio.ByteBuffer;
+
+public class IntWriter implements Writer<Integer> {
+
+    private State state = State.EMPTY;
+    private int value;
+    private int written; // bytes of value already written, big-endian
+
+    @Override
+    public void set(Integer value) {
+        set(value.intValue());
+    }
+
+    /**
+     * Same as set, without boxing
+     */
+    public void set(int value) {
+        if (state != State.EMPTY) {
+            throw new IllegalStateException();
+        }
+        this.value = value;
+        written = 0;
+        state = State.WRITING;
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state != State.WRITING) {
+            throw new IllegalStateException();
+        }
+        if (written == 0 && buffer.remaining() >= Integer.BYTES) {
+            buffer.putInt(value);
+            state = State.DONE;
+            return ProcessStatus.DONE;
+        }
+        while (written < Integer.BYTES && buffer.hasRemaining()) {
+            buffer.put((byte) (value >>> (Byte.SIZE * (Integer.BYTES - 1 - written))));
+            written++;
+        }
+        if (written < Integer.BYTES) {
+            return ProcessStatus.FULL;
+        }
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    @Override
+    public void reset() {
+        state = State.EMPTY;
+    }
+
+    private enum State {
+        EMPTY, WRITING, DONE
+    }
+}
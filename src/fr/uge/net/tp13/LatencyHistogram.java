@@ -0,0 +1,96 @@
+package fr.uge.net.tp13;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Histogram of latencies in nanoseconds with a relative precision of about 3%.
+ * <p>
+ * Values below 32 have their own bucket, above each power of two is split into 32 buckets,
+ * so recording a value is a few bit operations and an increment. Not thread safe: each thread
+ * records in its own histogram and the histograms are merged at the end.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+    private long totalCount;
+    private long max;
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        var shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long lowestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        var shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos - latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        var value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add all the values recorded in another histogram to this one
+     *
+     * @param other - histogram, it is left untouched
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        max = Math.max(max, other.max);
+    }
+
+    public long totalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Return the value under which a given fraction of the values are
+     *
+     * @param quantile - between 0 and 1, for instance 0.99 for the 99th percentile
+     * @return the lowest value of the bucket holding the quantile, in nanoseconds
+     */
+    public long valueAt(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1");
+        }
+        if (totalCount == 0) {
+            return 0;
+        }
+        var rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+        var seen = 0L;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + totalCount
+                + " p50=" + TimeUnit.NANOSECONDS.toMicros(valueAt(0.5)) + "us"
+                + " p99=" + TimeUnit.NANOSECONDS.toMicros(valueAt(0.99)) + "us"
+                + " p999=" + TimeUnit.NANOSECONDS.toMicros(valueAt(0.999)) + "us"
+                + " max=" + TimeUnit.NANOSECONDS.toMicros(max) + "us";
+    }
+}
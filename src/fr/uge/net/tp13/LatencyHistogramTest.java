@@ -0,0 +1,89 @@
+package fr.uge.net.tp13;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesAreExact() {
+        var histogram = new LatencyHistogram();
+        for (int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        assertEquals(32, histogram.totalCount());
+        assertEquals(0, histogram.valueAt(0));
+        assertEquals(15, histogram.valueAt(0.5));
+        assertEquals(31, histogram.valueAt(1));
+    }
+
+    @Test
+    public void bucketsAreWithinThreePercent() {
+        var random = new Random(0);
+        for (int i = 0; i < 10_000; i++) {
+            var value = random.nextLong() >>> (1 + random.nextInt(63));
+            var histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE); // so that max does not cap the bucket value
+            var lowest = histogram.valueAt(0.5);
+            assertTrue(lowest <= value, value + " in a bucket starting at " + lowest);
+            assertTrue(value - lowest <= value / 32, value + " in a bucket starting at " + lowest);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1_000; i++) {
+            histogram.record(i * 1_000L);
+        }
+        var p50 = histogram.valueAt(0.5);
+        var p99 = histogram.valueAt(0.99);
+        assertTrue(p50 <= 500_000 && p50 >= 500_000 - 500_000 / 32, "p50=" + p50);
+        assertTrue(p99 <= 990_000 && p99 >= 990_000 - 990_000 / 32, "p99=" + p99);
+        var p100 = histogram.valueAt(1);
+        assertTrue(p100 <= 1_000_000 && p100 >= 1_000_000 - 1_000_000 / 32, "p100=" + p100);
+    }
+
+    @Test
+    public void negativeValuesAreZero() {
+        var histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.totalCount());
+        assertEquals(0, histogram.valueAt(1));
+    }
+
+    @Test
+    public void add() {
+        var first = new LatencyHistogram();
+        var second = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            first.record(10);
+            second.record(20);
+        }
+        second.record(30);
+        first.add(second);
+        assertEquals(21, first.totalCount());
+        assertEquals(10, first.valueAt(0.25));
+        assertEquals(20, first.valueAt(0.75));
+        assertEquals(30, first.valueAt(1));
+        assertEquals(11, second.totalCount());
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, new LatencyHistogram().valueAt(0.99));
+    }
+
+    @Test
+    public void quantileOutOfRange() {
+        var histogram = new LatencyHistogram();
+        assertThrows(IllegalArgumentException.class, () -> histogram.valueAt(-0.1));
+        assertThrows(IllegalArgumentException.class, () -> histogram.valueAt(1.1));
+    }
+}
@@ -6,21 +6,33 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ServerEchoWithConsole {
     private static final int BUFFER_SIZE = 1_024;
+    private static final int BUFFERS_PER_SLAB = 1_024;
+    private static final int LARGE_BUFFER_SIZE = 16 * 1_024; // for the clients that send a lot
+    private static final int LARGE_BUFFERS_PER_SLAB = 64;
+    private static final long IDLE_BUFFER = TimeUnit.SECONDS.toNanos(1); // an empty buffer is given back after
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100); // precision of IDLE_BUFFER
+    private static final int NB_SLOTS = 16; // a turn of the wheel is longer than IDLE_BUFFER
     private static final Logger logger = Logger.getLogger(ServerEchoWithConsole.class.getName());
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
     private final Thread console;
-    private final StringController stringController = new StringController();
+    private final CommandQueue<String> commandQueue;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+    private final BufferPool largeBufferPool = new BufferPool(LARGE_BUFFER_SIZE, LARGE_BUFFERS_PER_SLAB);
+    private final ServerStats stats = new ServerStats();
+    private final TimingWheel timingWheel = new TimingWheel(TICK, NB_SLOTS, System.nanoTime());
 
     public ServerEchoWithConsole(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress(port));
         selector = Selector.open();
+        commandQueue = new CommandQueue<>(selector::wakeup);
         this.console = new Thread(this::consoleRun);
     }
 
@@ -56,14 +68,13 @@ public class ServerEchoWithConsole {
     }
 
     /**
-     * Send instructions to the selector via messageController and wake it up
+     * Send instructions to the selector via commandQueue, which wakes it up if needed
      *
      * @param command - command
      * @throws InterruptedException - if thread has been interrupted
      */
     private void sendCommand(String command) throws InterruptedException {
-        stringController.add(command);
-        selector.wakeup();
+        commandQueue.offer(command);
         // Cause the exception if the main thread has requested the interrupt
         if (Thread.interrupted()) {
             throw new InterruptedException("Interrupted by main thread");
@@ -71,35 +82,32 @@ public class ServerEchoWithConsole {
     }
 
     /**
-     * Processes the command from the messageController
+     * Processes the commands from the commandQueue, in one pass
      */
-    private void processCommands() throws IOException {
-        while (stringController.hasMessages()) {
-            treatCommand(stringController.poll());
-        }
+    private void processCommands() {
+        commandQueue.drain(this::treatCommand);
     }
 
-    private void treatCommand(String command) throws IOException {
+    private void treatCommand(String command) {
         switch (command) {
             case "INFO" -> processInfo();
+            case "STATS" -> processStats();
             case "SHUTDOWN" -> processShutdown();
             case "SHUTDOWNNOW" -> processShutdownNow();
             default -> System.out.println("Unknown command");
         }
     }
 
-    private int nbClientActuallyConnected() {
-        return selector.keys().stream().mapToInt(key -> {
-            if (key.isValid() && key.channel() != serverSocketChannel) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }).sum();
+    private void processInfo() {
+        logger.info("There are currently " + stats.connected() + " clients connected to the server");
+        logger.info(bufferPool.toString());
+        logger.info(largeBufferPool.toString());
     }
 
-    private void processInfo() {
-        logger.info("There are currently " + nbClientActuallyConnected() + " clients connected to the server");
+    private void processStats() {
+        var now = System.nanoTime();
+        stats.tick(now);
+        logger.info(stats.report(now));
     }
 
     private void processShutdown() {
@@ -111,11 +119,11 @@ public class ServerEchoWithConsole {
         }
     }
 
-    private void processShutdownNow() throws IOException {
+    private void processShutdownNow() {
         logger.info("shutdown now...");
         for (SelectionKey key : selector.keys()) {
             if (key.channel() != serverSocketChannel && key.isValid()) {
-                key.channel().close();
+                ((Context) key.attachment()).silentlyClose();
             }
         }
         console.interrupt();
@@ -130,7 +138,11 @@ public class ServerEchoWithConsole {
             Helpers.printKeys(selector); // for debug
             System.out.println("Starting select");
             try {
-                selector.select(this::treatKey);
+                var now = System.nanoTime();
+                stats.tick(now);
+                selector.select(this::treatKey, timingWheel.millisToNextTick(now));
+                stats.increment(ServerStats.Counter.WAKEUPS);
+                timingWheel.expire(System.nanoTime());
                 processCommands();
             } catch (UncheckedIOException tunneled) {
                 throw tunneled.getCause();
@@ -140,6 +152,15 @@ public class ServerEchoWithConsole {
     }
 
     private void treatKey(SelectionKey key) {
+        var start = System.nanoTime();
+        try {
+            treatKeyTimed(key);
+        } finally {
+            stats.add(ServerStats.Counter.TREAT_KEY_NANOS, System.nanoTime() - start);
+        }
+    }
+
+    private void treatKeyTimed(SelectionKey key) {
         Helpers.printSelectedKey(key); // for debug
         try {
             if (key.isValid() && key.isAcceptable()) {
@@ -158,7 +179,7 @@ public class ServerEchoWithConsole {
             }
         } catch (IOException e) {
             logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            ((Context) key.attachment()).silentlyClose();
         }
     }
 
@@ -170,27 +191,34 @@ public class ServerEchoWithConsole {
         }
         sc.configureBlocking(false);
         var selectionKey = sc.register(selector, SelectionKey.OP_READ);
-        selectionKey.attach(new Context(selectionKey));
-    }
-
-    private void silentlyClose(SelectionKey key) {
-        var sc = (Channel) key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
-        }
+        selectionKey.attach(new Context(selectionKey, bufferPool, largeBufferPool, stats, timingWheel));
+        stats.increment(ServerStats.Counter.ACCEPTS);
     }
 
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ServerStats stats;
+        private final AdaptiveBuffer buffer;
+        private final TimingWheel timingWheel;
+        private final TimingWheel.Timeout idleBufferTimeout = new TimingWheel.Timeout(this::releaseIdleBuffer);
         private boolean closed = false;
+        private boolean released = false;
 
-        private Context(SelectionKey key) {
+        private Context(SelectionKey key, BufferPool bufferPool, BufferPool largeBufferPool, ServerStats stats,
+                        TimingWheel timingWheel) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.stats = stats;
+            this.timingWheel = timingWheel;
+            this.buffer = new AdaptiveBuffer(this, bufferPool, largeBufferPool); // no buffer until the first read
+        }
+
+        /**
+         * Give the buffer back to its pool if it is empty, the next read borrows another one
+         */
+        private void releaseIdleBuffer() {
+            buffer.releaseIfEmpty();
         }
 
         /**
@@ -204,10 +232,11 @@ public class ServerEchoWithConsole {
             if (!key.isValid()) {
                 return;
             }
-            if (!closed && buffer.hasRemaining()) {
+            var bb = buffer.peek(); // null if idle, a buffer is borrowed on the next read
+            if (!closed && (bb == null || bb.hasRemaining())) {
                 interesteOps |= SelectionKey.OP_READ;
             }
-            if (buffer.position() != 0) {
+            if (bb != null && bb.position() != 0) {
                 interesteOps |= SelectionKey.OP_WRITE;
             }
             if (interesteOps == 0) {
@@ -226,10 +255,17 @@ public class ServerEchoWithConsole {
          * @throws IOException - If an I/O error occurs
          */
         private void doRead() throws IOException {
-            if (-1 == sc.read(buffer)) {
+            var bb = buffer.get();
+            var room = bb.remaining();
+            var read = sc.read(bb);
+            if (-1 == read) {
                 closed = true;
                 logger.info("Connexion closed");
+            } else {
+                stats.read(read);
+                buffer.afterRead(read, room);
             }
+            timingWheel.schedule(idleBufferTimeout, System.nanoTime() + IDLE_BUFFER);
             updateInterestOps();
         }
 
@@ -242,9 +278,11 @@ public class ServerEchoWithConsole {
          * @throws IOException - If an I/O error occurs
          */
         private void doWrite() throws IOException {
-            buffer.flip(); // need to flip buffer to write data
-            sc.write(buffer);
-            buffer.compact(); // to follow the convention
+            var bb = buffer.peek(); // not null, there is something to write
+            bb.flip(); // need to flip buffer to write data
+            stats.written(sc.write(bb));
+            bb.compact(); // to follow the convention
+            timingWheel.schedule(idleBufferTimeout, System.nanoTime() + IDLE_BUFFER);
             updateInterestOps();
         }
 
@@ -254,6 +292,12 @@ public class ServerEchoWithConsole {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (!released) {
+                released = true;
+                timingWheel.cancel(idleBufferTimeout);
+                stats.closed(buffer.peek() == null ? 0 : buffer.peek().position());
+                buffer.release();
+            }
         }
     }
 }
\ No newline at end of file
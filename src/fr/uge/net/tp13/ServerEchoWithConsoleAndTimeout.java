@@ -6,22 +6,34 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ServerEchoWithConsoleAndTimeout {
     private static final int BUFFER_SIZE = 1_024;
+    private static final int BUFFERS_PER_SLAB = 1_024;
+    private static final int LARGE_BUFFER_SIZE = 16 * 1_024; // for the clients that send a lot
+    private static final int LARGE_BUFFERS_PER_SLAB = 64;
+    private static final long IDLE_BUFFER = TimeUnit.SECONDS.toNanos(1); // an empty buffer is given back after
     private static final Logger logger = Logger.getLogger(ServerEchoWithConsoleAndTimeout.class.getName());
-    private static final int TIMEOUT = 10000; // 10 sec
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100); // precision of the timeout
+    private static final int NB_SLOTS = 128; // a turn of the wheel is longer than TIMEOUT
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
     private final Thread console;
-    private final StringController stringController = new StringController();
+    private final CommandQueue<String> commandQueue;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+    private final BufferPool largeBufferPool = new BufferPool(LARGE_BUFFER_SIZE, LARGE_BUFFERS_PER_SLAB);
+    private final ServerStats stats = new ServerStats();
+    private final TimingWheel timingWheel = new TimingWheel(TICK, NB_SLOTS, System.nanoTime());
 
     public ServerEchoWithConsoleAndTimeout(int port) throws IOException {
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress(port));
         selector = Selector.open();
+        commandQueue = new CommandQueue<>(selector::wakeup);
         this.console = new Thread(this::consoleRun);
     }
 
@@ -57,14 +69,13 @@ public class ServerEchoWithConsoleAndTimeout {
     }
 
     /**
-     * Send instructions to the selector via messageController and wake it up
+     * Send instructions to the selector via commandQueue, which wakes it up if needed
      *
      * @param command - command
      * @throws InterruptedException - if thread has been interrupted
      */
     private void sendCommand(String command) throws InterruptedException {
-        stringController.add(command);
-        selector.wakeup();
+        commandQueue.offer(command);
         // Cause the exception if the main thread has requested the interrupt
         if (Thread.interrupted()) {
             throw new InterruptedException("Interrupted by main thread");
@@ -72,35 +83,32 @@ public class ServerEchoWithConsoleAndTimeout {
     }
 
     /**
-     * Processes the command from the messageController
+     * Processes the commands from the commandQueue, in one pass
      */
-    private void processCommands() throws IOException {
-        while (stringController.hasMessages()) {
-            treatCommand(stringController.poll());
-        }
+    private void processCommands() {
+        commandQueue.drain(this::treatCommand);
     }
 
-    private void treatCommand(String command) throws IOException {
+    private void treatCommand(String command) {
         switch (command) {
             case "INFO" -> processInfo();
+            case "STATS" -> processStats();
             case "SHUTDOWN" -> processShutdown();
             case "SHUTDOWNNOW" -> processShutdownNow();
             default -> System.out.println("Unknown command");
         }
     }
 
-    private int nbClientActuallyConnected() {
-        return selector.keys().stream().mapToInt(key -> {
-            if (key.isValid() && key.channel() != serverSocketChannel) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }).sum();
+    private void processInfo() {
+        logger.info("There are currently " + stats.connected() + " clients connected to the server");
+        logger.info(bufferPool.toString());
+        logger.info(largeBufferPool.toString());
     }
 
-    private void processInfo() {
-        logger.info("There are currently " + nbClientActuallyConnected() + " clients connected to the server");
+    private void processStats() {
+        var now = System.nanoTime();
+        stats.tick(now);
+        logger.info(stats.report(now));
     }
 
     private void processShutdown() {
@@ -112,39 +120,17 @@ public class ServerEchoWithConsoleAndTimeout {
         }
     }
 
-    private void processShutdownNow() throws IOException {
+    private void processShutdownNow() {
         logger.info("shutdown now...");
         for (SelectionKey key : selector.keys()) {
             if (key.channel() != serverSocketChannel && key.isValid()) {
-                key.channel().close();
+                ((Context) key.attachment()).silentlyClose();
             }
         }
         console.interrupt();
         Thread.currentThread().interrupt();
     }
 
-    private void closeConnexionIfInaction(SelectionKey key) {
-        if (key.channel() == serverSocketChannel) {
-            return;
-        }
-        Context context = (Context) key.attachment(); // Safe cast
-        if (!context.activeSinceLastTimeoutCheck) {
-            try {
-                key.channel().close();
-            } catch (IOException e) {
-                logger.info("closeConnexionIfInaction : IOE");
-            }
-        }
-    }
-
-    private void setInaction(SelectionKey key) {
-        if (key.channel() == serverSocketChannel) {
-            return;
-        }
-        Context context = (Context) key.attachment(); // Safe cast
-        context.activeSinceLastTimeoutCheck = false;
-    }
-
     public void launch() throws IOException {
         serverSocketChannel.configureBlocking(false);
         serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
@@ -153,9 +139,12 @@ public class ServerEchoWithConsoleAndTimeout {
             Helpers.printKeys(selector); // for debug
             System.out.println("Starting select");
             try {
-                selector.select(this::treatKey, TIMEOUT);
-                selector.keys().forEach(this::closeConnexionIfInaction);
-                selector.keys().forEach(this::setInaction);
+                var now = System.nanoTime();
+                stats.tick(now);
+                selector.select(this::treatKey, timingWheel.millisToNextTick(now));
+                stats.increment(ServerStats.Counter.WAKEUPS);
+                // only the connections whose timeout is due are visited
+                timingWheel.expire(System.nanoTime());
                 processCommands();
             } catch (UncheckedIOException tunneled) {
                 throw tunneled.getCause();
@@ -165,6 +154,15 @@ public class ServerEchoWithConsoleAndTimeout {
     }
 
     private void treatKey(SelectionKey key) {
+        var start = System.nanoTime();
+        try {
+            treatKeyTimed(key);
+        } finally {
+            stats.add(ServerStats.Counter.TREAT_KEY_NANOS, System.nanoTime() - start);
+        }
+    }
+
+    private void treatKeyTimed(SelectionKey key) {
         Helpers.printSelectedKey(key); // for debug
         try {
             if (key.isValid() && key.isAcceptable()) {
@@ -183,7 +181,7 @@ public class ServerEchoWithConsoleAndTimeout {
             }
         } catch (IOException e) {
             logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-            silentlyClose(key);
+            ((Context) key.attachment()).silentlyClose();
         }
     }
 
@@ -195,28 +193,43 @@ public class ServerEchoWithConsoleAndTimeout {
         }
         sc.configureBlocking(false);
         var selectionKey = sc.register(selector, SelectionKey.OP_READ);
-        selectionKey.attach(new Context(selectionKey));
-    }
-
-    private void silentlyClose(SelectionKey key) {
-        var sc = (Channel) key.channel();
-        try {
-            sc.close();
-        } catch (IOException e) {
-            // ignore exception
-        }
+        selectionKey.attach(new Context(selectionKey, bufferPool, largeBufferPool, stats, timingWheel));
+        stats.increment(ServerStats.Counter.ACCEPTS);
     }
 
     static private class Context {
         private final SelectionKey key;
         private final SocketChannel sc;
-        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ServerStats stats;
+        private final AdaptiveBuffer buffer;
+        private final TimingWheel.Timeout idleBufferTimeout = new TimingWheel.Timeout(this::releaseIdleBuffer);
+        private final TimingWheel timingWheel;
+        private final TimingWheel.Timeout timeout = new TimingWheel.Timeout(this::silentlyClose);
         private boolean closed = false;
-        private boolean activeSinceLastTimeoutCheck = true;
+        private boolean released = false;
 
-        private Context(SelectionKey key) {
+        private Context(SelectionKey key, BufferPool bufferPool, BufferPool largeBufferPool, ServerStats stats,
+                        TimingWheel timingWheel) {
             this.key = key;
             this.sc = (SocketChannel) key.channel();
+            this.stats = stats;
+            this.timingWheel = timingWheel;
+            this.buffer = new AdaptiveBuffer(this, bufferPool, largeBufferPool); // no buffer until the first read
+            markActive();
+        }
+
+        /**
+         * Push back the timeout of the connection, which is closed after TIMEOUT without activity
+         */
+        private void markActive() {
+            timingWheel.schedule(timeout, System.nanoTime() + TIMEOUT);
+        }
+
+        /**
+         * Give the buffer back to its pool if it is empty, the next read borrows another one
+         */
+        private void releaseIdleBuffer() {
+            buffer.releaseIfEmpty();
         }
 
         /**
@@ -230,10 +243,11 @@ public class ServerEchoWithConsoleAndTimeout {
             if (!key.isValid()) {
                 return;
             }
-            if (!closed && buffer.hasRemaining()) {
+            var bb = buffer.peek(); // null if idle, a buffer is borrowed on the next read
+            if (!closed && (bb == null || bb.hasRemaining())) {
                 interesteOps |= SelectionKey.OP_READ;
             }
-            if (buffer.position() != 0) {
+            if (bb != null && bb.position() != 0) {
                 interesteOps |= SelectionKey.OP_WRITE;
             }
             if (interesteOps == 0) {
@@ -252,11 +266,18 @@ public class ServerEchoWithConsoleAndTimeout {
          * @throws IOException - If an I/O error occurs
          */
         private void doRead() throws IOException {
-            activeSinceLastTimeoutCheck = true;
-            if (-1 == sc.read(buffer)) {
+            markActive();
+            var bb = buffer.get();
+            var room = bb.remaining();
+            var read = sc.read(bb);
+            if (-1 == read) {
                 closed = true;
                 logger.info("Connexion closed");
+            } else {
+                stats.read(read);
+                buffer.afterRead(read, room);
             }
+            timingWheel.schedule(idleBufferTimeout, System.nanoTime() + IDLE_BUFFER);
             updateInterestOps();
         }
 
@@ -269,10 +290,12 @@ public class ServerEchoWithConsoleAndTimeout {
          * @throws IOException - If an I/O error occurs
          */
         private void doWrite() throws IOException {
-            activeSinceLastTimeoutCheck = true;
-            buffer.flip(); // need to flip buffer to write data
-            sc.write(buffer);
-            buffer.compact(); // to follow the convention
+            markActive();
+            var bb = buffer.peek(); // not null, there is something to write
+            bb.flip(); // need to flip buffer to write data
+            stats.written(sc.write(bb));
+            bb.compact(); // to follow the convention
+            timingWheel.schedule(idleBufferTimeout, System.nanoTime() + IDLE_BUFFER);
             updateInterestOps();
         }
 
@@ -282,6 +305,13 @@ public class ServerEchoWithConsoleAndTimeout {
             } catch (IOException e) {
                 // ignore exception
             }
+            if (!released) {
+                released = true;
+                timingWheel.cancel(timeout);
+                timingWheel.cancel(idleBufferTimeout);
+                stats.closed(buffer.peek() == null ? 0 : buffer.peek().position());
+                buffer.release();
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+package fr.uge.net.tp13;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Activity counters of a server, for its STATS console command.
+ * <p>
+ * The counters are plain fields written by the selector thread only, and the console
+ * commands are executed by the selector thread too, so counting costs no synchronization
+ * on the hot path. Once per second the counters are copied into a ring of snapshots: the
+ * rate over a window is the difference between the current counters and an older snapshot.
+ */
+public class ServerStats {
+    private static final int HISTORY = 60; // seconds of snapshots kept
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+    private static final int[] WINDOWS = {1, 10, HISTORY}; // in seconds
+    private final long[] counters = new long[Counter.values().length];
+    private final long[][] snapshots = new long[HISTORY + 1][Counter.values().length];
+    private final long[] snapshotTimes = new long[HISTORY + 1];
+    private int lastSnapshot; // index in snapshots of the most recent one
+    private int nbSnapshots = 1;
+    private long queuedBytes; // bytes received and not yet sent back
+
+    public ServerStats() {
+        snapshotTimes[0] = System.nanoTime();
+    }
+
+    public enum Counter {
+        BYTES_IN, BYTES_OUT, READS, WRITES, ACCEPTS, CLOSES, WAKEUPS, TREAT_KEY_NANOS
+    }
+
+    public void add(Counter counter, long value) {
+        counters[counter.ordinal()] += value;
+    }
+
+    public void increment(Counter counter) {
+        counters[counter.ordinal()]++;
+    }
+
+    /**
+     * Record bytes read from a client, they are queued until they are written
+     */
+    public void read(int bytes) {
+        counters[Counter.BYTES_IN.ordinal()] += bytes;
+        counters[Counter.READS.ordinal()]++;
+        queuedBytes += bytes;
+    }
+
+    public void written(int bytes) {
+        counters[Counter.BYTES_OUT.ordinal()] += bytes;
+        counters[Counter.WRITES.ordinal()]++;
+        queuedBytes -= bytes;
+    }
+
+    /**
+     * Record the closing of a connection
+     *
+     * @param droppedBytes - bytes that were still queued for the client
+     */
+    public void closed(int droppedBytes) {
+        counters[Counter.CLOSES.ordinal()]++;
+        queuedBytes -= droppedBytes;
+    }
+
+    public long connected() {
+        return counters[Counter.ACCEPTS.ordinal()] - counters[Counter.CLOSES.ordinal()];
+    }
+
+    /**
+     * Take the snapshots due since the last call. It must be called by the selector thread
+     * before it blocks: the counters do not change while it is blocked, so the snapshots missed
+     * during a long select are filled with the current counters.
+     *
+     * @param now - current value of System.nanoTime()
+     */
+    public void tick(long now) {
+        while (now - snapshotTimes[lastSnapshot] >= PERIOD) {
+            var time = snapshotTimes[lastSnapshot] + PERIOD;
+            lastSnapshot = (lastSnapshot + 1) % snapshots.length;
+            nbSnapshots = Math.min(nbSnapshots + 1, snapshots.length);
+            snapshotTimes[lastSnapshot] = now - time >= PERIOD ? time : now;
+            System.arraycopy(counters, 0, snapshots[lastSnapshot], 0, counters.length);
+        }
+    }
+
+    /**
+     * Return the rates over the last second, 10 seconds and minute, or since the start of the
+     * server if it is more recent
+     *
+     * @param now - current value of System.nanoTime()
+     */
+    public String report(long now) {
+        var builder = new StringBuilder();
+        builder.append(connected()).append(" clients connected, ").append(queuedBytes).append(" bytes queued");
+        var previousBack = -1;
+        for (var window : WINDOWS) {
+            var back = Math.min(window, nbSnapshots - 1); // the server may be younger than the window
+            if (back == previousBack) {
+                continue;
+            }
+            previousBack = back;
+            var index = Math.floorMod(lastSnapshot - back, snapshots.length);
+            appendRates(builder, snapshots[index], now - snapshotTimes[index]);
+        }
+        return builder.toString();
+    }
+
+    private void appendRates(StringBuilder builder, long[] from, long elapsed) {
+        var seconds = Math.max(elapsed, 1) / 1e9;
+        var wakeups = delta(Counter.WAKEUPS, from);
+        builder.append(String.format("%nlast %.1fs: in %.1f KiB/s (%.0f reads/s), out %.1f KiB/s (%.0f writes/s), "
+                        + "%.0f accepts/s, %.0f closes/s, %.0f wakeups/s, treatKey %.1f%% of the time (%.1fus per wakeup)",
+                seconds,
+                delta(Counter.BYTES_IN, from) / 1_024.0 / seconds, delta(Counter.READS, from) / seconds,
+                delta(Counter.BYTES_OUT, from) / 1_024.0 / seconds, delta(Counter.WRITES, from) / seconds,
+                delta(Counter.ACCEPTS, from) / seconds, delta(Counter.CLOSES, from) / seconds, wakeups / seconds,
+                100.0 * delta(Counter.TREAT_KEY_NANOS, from) / Math.max(elapsed, 1),
+                wakeups == 0 ? 0.0 : delta(Counter.TREAT_KEY_NANOS, from) / 1_000.0 / wakeups));
+    }
+
+    private long delta(Counter counter, long[] from) {
+        return counters[counter.ordinal()] - from[counter.ordinal()];
+    }
+}
@@ -0,0 +1,99 @@
+package fr.uge.net.tp13;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a string encoded in UTF-8 prefixed by its size in bytes, the counterpart of StringReader.
+ * <p>
+ * The size is computed from the chars and the string is encoded straight into the buffer of the
+ * caller by an encoder reused from one string to the next, so writing a string allocates nothing
+ * once the char buffer has grown to the size of the longest string. An encoded character is
+ * never split, so the buffer of the caller must be able to hold 4 bytes.
+ */
+public class StringWriter implements Writer<String> {
+
+    private static final int BUFFER_SIZE = 1_024;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final IntWriter sizeWriter = new IntWriter();
+    private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE); // read-mode while writing
+    private State state = State.EMPTY;
+
+    /**
+     * Return the size of string encoded in UTF-8, a lone surrogate being replaced by the encoder
+     */
+    int encodedSize(String string) {
+        var size = 0;
+        for (int i = 0; i < string.length(); i++) {
+            var c = string.charAt(i);
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size += encoder.replacement().length;
+            } else {
+                size += 3;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void set(String value) {
+        if (state != State.EMPTY) {
+            throw new IllegalStateException();
+        }
+        if (value.length() > chars.capacity()) {
+            chars = CharBuffer.allocate(Math.max(value.length(), 2 * chars.capacity()));
+        }
+        value.getChars(0, value.length(), chars.array(), 0);
+        chars.clear().limit(value.length());
+        sizeWriter.set(encodedSize(value));
+        encoder.reset();
+        state = State.WRITING_SIZE;
+    }
+
+    @Override
+    public ProcessStatus process(ByteBuffer buffer) {
+        if (state == State.EMPTY || state == State.DONE) {
+            throw new IllegalStateException();
+        }
+        if (state == State.WRITING_SIZE) {
+            if (sizeWriter.process(buffer) == ProcessStatus.FULL) {
+                return ProcessStatus.FULL;
+            }
+            state = State.WRITING_TEXT; // buffer isn't necessarily full
+        }
+        if (state == State.WRITING_TEXT) {
+            if (encoder.encode(chars, buffer, true).isOverflow()) {
+                return ProcessStatus.FULL;
+            }
+            state = State.FLUSHING;
+        }
+        if (encoder.flush(buffer).isOverflow()) {
+            return ProcessStatus.FULL;
+        }
+        state = State.DONE;
+        return ProcessStatus.DONE;
+    }
+
+    @Override
+    public void reset() {
+        sizeWriter.reset();
+        state = State.EMPTY;
+    }
+
+    private enum State {
+        EMPTY, WRITING_SIZE, WRITING_TEXT, FLUSHING, DONE
+    }
+}
@@ -0,0 +1,175 @@
+package fr.uge.net.tp13;
+
+/**
+ * Hashed timing wheel of the idle timeouts of the connections, driven by the selector loop.
+ * <p>
+ * The time is cut in ticks, the timeouts due during a tick are in the slot of the tick, modulo
+ * the number of slots, as an intrusive doubly-linked list so that nothing is allocated once a
+ * Timeout is created. Pushing a deadline back, on each read or write, only updates the deadline:
+ * the timeout is moved to its new slot when its old slot comes due. So the activity of a
+ * connection is O(1) and expire only walks the slots elapsed since the last call, each
+ * timeout being visited at most once per deadline. A timeout fires at most one tick late.
+ * Not thread safe.
+ */
+public class TimingWheel {
+
+    /**
+     * A timeout, to be scheduled in at most one wheel
+     */
+    public static final class Timeout {
+        private final Runnable action;
+        private long deadline; // in nanoseconds, as System.nanoTime
+        private Timeout previous; // in the list of the slot, the sentinel of the slot for the first
+        private Timeout next; // in the list of the slot, null for the last
+
+        /**
+         * @param action - run by expire when the deadline is reached
+         */
+        public Timeout(Runnable action) {
+            this.action = action;
+        }
+
+        public boolean isScheduled() {
+            return previous != null;
+        }
+
+        private void unlink() {
+            previous.next = next;
+            if (next != null) {
+                next.previous = previous;
+            }
+            previous = null;
+            next = null;
+        }
+    }
+
+    private final Timeout[] slots; // sentinels
+    private final Timeout detached = new Timeout(null); // sentinel of the slot being walked by expire
+    private final long tickNanos;
+    private final long origin; // time of the tick 0
+    private long nextTick; // the ticks before were fully expired
+    private int size;
+
+    /**
+     * @param tickNanos - duration of a tick, the precision of the timeouts
+     * @param nbSlots   - number of slots, rounded up to a power of two. The timeouts are best kept
+     *                  below nbSlots * tickNanos, longer ones are walked once per turn of the wheel
+     * @param now       - current time, as System.nanoTime
+     */
+    public TimingWheel(long tickNanos, int nbSlots, long now) {
+        if (tickNanos <= 0 || nbSlots < 1 || nbSlots > 1 << 20) {
+            throw new IllegalArgumentException("Expected tickNanos > 0 and 1 <= nbSlots <= 2^20");
+        }
+        var length = Integer.highestOneBit(nbSlots);
+        slots = new Timeout[length == nbSlots ? length : length << 1];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Timeout(null);
+        }
+        this.tickNanos = tickNanos;
+        this.origin = now;
+    }
+
+    private long tick(long time) {
+        return Math.max(0, time - origin) / tickNanos;
+    }
+
+    private void link(Timeout timeout) {
+        var tick = Math.max(tick(timeout.deadline), nextTick);
+        var sentinel = slots[(int) (tick & (slots.length - 1))];
+        timeout.previous = sentinel;
+        timeout.next = sentinel.next;
+        if (sentinel.next != null) {
+            sentinel.next.previous = timeout;
+        }
+        sentinel.next = timeout;
+    }
+
+    /**
+     * Schedule timeout at deadline, or move its deadline if it is already scheduled. A deadline
+     * pushed back is only recorded, the timeout stays in its slot until the slot comes due.
+     *
+     * @param deadline - time, as System.nanoTime
+     */
+    public void schedule(Timeout timeout, long deadline) {
+        if (!timeout.isScheduled()) {
+            timeout.deadline = deadline;
+            link(timeout);
+            size++;
+            return;
+        }
+        var sooner = deadline - timeout.deadline < 0;
+        timeout.deadline = deadline;
+        if (sooner) {
+            timeout.unlink();
+            link(timeout);
+        }
+    }
+
+    /**
+     * Unschedule timeout, if it is scheduled
+     */
+    public void cancel(Timeout timeout) {
+        if (timeout.isScheduled()) {
+            timeout.unlink();
+            size--;
+        }
+    }
+
+    /**
+     * Number of scheduled timeouts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Run the action of the timeouts whose deadline is reached and unschedule them. Only the
+     * slots of the ticks elapsed since the last call are walked.
+     *
+     * @param now - current time, as System.nanoTime
+     * @return the number of expired timeouts
+     */
+    public int expire(long now) {
+        var nowTick = tick(now);
+        var expired = 0;
+        // after a whole turn, the slots come due again, no need to walk them twice
+        for (var tick = Math.max(nextTick, nowTick - slots.length + 1); tick <= nowTick; tick++) {
+            var sentinel = slots[(int) (tick & (slots.length - 1))];
+            if (sentinel.next == null) {
+                continue;
+            }
+            // detach the list, the timeouts not due go back in a slot, maybe this one
+            detached.next = sentinel.next;
+            detached.next.previous = detached;
+            sentinel.next = null;
+            nextTick = tick;
+            Timeout timeout;
+            while ((timeout = detached.next) != null) {
+                timeout.unlink();
+                if (timeout.deadline - now <= 0) {
+                    size--;
+                    timeout.action.run(); // may cancel or schedule any timeout
+                    expired++;
+                } else {
+                    link(timeout);
+                }
+            }
+        }
+        nextTick = nowTick; // nowTick is not over, its slot will be walked again
+        return expired;
+    }
+
+    /**
+     * Return how long to wait before the next call to expire, in milliseconds, or 0 if
+     * there is no timeout, as expected by Selector.select
+     *
+     * @param now - current time, as System.nanoTime
+     */
+    public long millisToNextTick(long now) {
+        if (size == 0) {
+            return 0;
+        }
+        var elapsed = Math.max(0, now - origin) % tickNanos;
+        return Math.max(1, (tickNanos - elapsed + 999_999) / 1_000_000);
+    }
+}
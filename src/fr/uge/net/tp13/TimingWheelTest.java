@@ -0,0 +1,101 @@
+package fr.uge.net.tp13;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimingWheelTest {
+    private static final long TICK = 100;
+
+    @Test
+    public void expireAtDeadline() {
+        var fired = new ArrayList<String>();
+        var wheel = new TimingWheel(TICK, 8, 0);
+        var a = new TimingWheel.Timeout(() -> fired.add("a"));
+        var b = new TimingWheel.Timeout(() -> fired.add("b"));
+        wheel.schedule(a, 250);
+        wheel.schedule(b, 420);
+        assertEquals(0, wheel.expire(249));
+        assertEquals(1, wheel.expire(250));
+        assertEquals(List.of("a"), fired);
+        assertFalse(a.isScheduled());
+        assertEquals(1, wheel.expire(1_000));
+        assertEquals(List.of("a", "b"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void pushBack() {
+        var fired = new ArrayList<Long>();
+        var wheel = new TimingWheel(TICK, 8, 0);
+        var now = new long[1];
+        var timeout = new TimingWheel.Timeout(() -> fired.add(now[0]));
+        wheel.schedule(timeout, 300);
+        for (now[0] = 0; now[0] <= 5_000; now[0] += 10) {
+            if (now[0] < 2_000) {
+                wheel.schedule(timeout, now[0] + 300); // active until 2 000
+            }
+            wheel.expire(now[0]);
+        }
+        assertEquals(List.of(2_290L), fired);
+    }
+
+    @Test
+    public void longerThanATurn() {
+        var fired = new ArrayList<String>();
+        var wheel = new TimingWheel(TICK, 4, 0);
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add("late")), 1_050);
+        wheel.schedule(new TimingWheel.Timeout(() -> fired.add("soon")), 150);
+        for (var now = 0; now < 1_050; now += 50) {
+            wheel.expire(now);
+            assertEquals(now < 150 ? List.of() : List.of("soon"), fired);
+        }
+        wheel.expire(1_050);
+        assertEquals(List.of("soon", "late"), fired);
+    }
+
+    @Test
+    public void cancelAndSooner() {
+        var fired = new ArrayList<String>();
+        var wheel = new TimingWheel(TICK, 8, 0);
+        var a = new TimingWheel.Timeout(() -> fired.add("a"));
+        var b = new TimingWheel.Timeout(() -> fired.add("b"));
+        wheel.schedule(a, 500);
+        wheel.schedule(b, 500);
+        wheel.cancel(a);
+        wheel.schedule(b, 200);
+        assertTrue(b.isScheduled());
+        assertEquals(1, wheel.expire(200));
+        assertEquals(0, wheel.expire(10_000));
+        assertEquals(List.of("b"), fired);
+    }
+
+    @Test
+    public void actionCancelsAnother() {
+        var fired = new ArrayList<String>();
+        var wheel = new TimingWheel(TICK, 8, 0);
+        var b = new TimingWheel.Timeout(() -> fired.add("b"));
+        var a = new TimingWheel.Timeout(() -> {
+            fired.add("a");
+            wheel.cancel(b);
+        });
+        wheel.schedule(b, 120);
+        wheel.schedule(a, 110); // in front of b in the same slot
+        assertEquals(1, wheel.expire(150));
+        assertEquals(List.of("a"), fired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void millisToNextTick() {
+        var wheel = new TimingWheel(1_000_000_000L, 8, 0);
+        assertEquals(0, wheel.millisToNextTick(0));
+        wheel.schedule(new TimingWheel.Timeout(() -> {}), 5_000_000_000L);
+        assertEquals(750, wheel.millisToNextTick(250_000_000L));
+    }
+}
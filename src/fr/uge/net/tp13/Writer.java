@@ -0,0 +1,27 @@
+package fr.uge.net.tp13;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counterpart of Reader: encodes a value straight into the buffer of the caller.
+ * <p>
+ * The value is given to set, then process is called until it returns DONE, the buffer being
+ * flushed between two calls when it returns FULL. Once DONE, reset makes the writer ready for
+ * another value, a writer is meant to be reused for all the values of a connection.
+ */
+public interface Writer<T> {
+
+    enum ProcessStatus { DONE, FULL };
+
+    void set(T value);
+
+    /**
+     * Write as much of the value as possible in bb
+     * <p>
+     * The convention is that bb is in write-mode before the call and after the call
+     */
+    ProcessStatus process(ByteBuffer bb);
+
+    void reset();
+
+}